@@ -0,0 +1,103 @@
+package com.iwdael.videocache;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Copy of {@link GetRequest} parsing before {@link HttpRequestParser}: request is read by {@link BufferedReader}
+ * into string and matched with regular expressions. Kept as baseline of {@link RequestParserBenchmark},
+ * Android's {@code TextUtils} is replaced by plain checks.
+ */
+class LegacyGetRequest {
+
+    private static final Pattern RANGE_HEADER_PATTERN = Pattern.compile("[R,r]ange:[ ]?bytes=(\\d*)-(\\d*)");
+    private static final Pattern URL_PATTERN = Pattern.compile("(GET|HEAD) /(.*) HTTP");
+    private static final Pattern HTTP_1_0_PATTERN = Pattern.compile("(GET|HEAD) /.* HTTP/1\\.0");
+
+    public final String uri;
+    public final boolean head;
+    public final long rangeOffset;
+    public final long rangeEnd;
+    public final boolean partial;
+    public final Map<String, String> headers;
+    public final boolean keepAlive;
+    public final String raw;
+
+    public LegacyGetRequest(String request) {
+        raw = request;
+        long offset = findRangeOffset(request);
+        this.rangeOffset = Math.max(0, offset);
+        this.partial = offset >= 0;
+        this.rangeEnd = partial ? findRangeEnd(request, rangeOffset) : -1;
+        Matcher urlMatcher = URL_PATTERN.matcher(request);
+        if (!urlMatcher.find()) {
+            throw new IllegalArgumentException("Invalid request `" + request + "`: url not found!");
+        }
+        this.head = "HEAD".equals(urlMatcher.group(1));
+        this.uri = urlMatcher.group(2);
+        this.headers = findHeaders(request);
+        this.keepAlive = isKeepAlive(request, headers);
+    }
+
+    private boolean isKeepAlive(String request, Map<String, String> headers) {
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            if ("Connection".equalsIgnoreCase(header.getKey())) {
+                String value = header.getValue().toLowerCase(Locale.US);
+                return !value.contains("close") && (value.contains("keep-alive") || !HTTP_1_0_PATTERN.matcher(request).find());
+            }
+        }
+        return !HTTP_1_0_PATTERN.matcher(request).find();
+    }
+
+    private Map<String, String> findHeaders(String request) {
+        Map<String, String> headers = new HashMap<>();
+        String[] lines = request.split("\n");
+        for (String line : lines) {
+            if (!line.contains(":")) continue;
+            int index = line.indexOf(":");
+            String key = line.substring(0, index).trim();
+            String value = line.substring(index + 1).trim();
+            headers.put(key, value);
+        }
+        return headers;
+    }
+
+    public static LegacyGetRequest read(InputStream inputStream) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, "UTF-8"));
+        StringBuilder stringRequest = new StringBuilder();
+        String line = reader.readLine();
+        if (line == null) {
+            return null;
+        }
+        while (line != null && !line.isEmpty()) {
+            stringRequest.append(line).append('\n');
+            line = reader.readLine();
+        }
+        return new LegacyGetRequest(stringRequest.toString());
+    }
+
+    private long findRangeOffset(String request) {
+        Matcher matcher = RANGE_HEADER_PATTERN.matcher(request);
+        if (matcher.find()) {
+            String rangeValue = matcher.group(1);
+            return Long.parseLong(rangeValue);
+        }
+        return -1;
+    }
+
+    private long findRangeEnd(String request, long offset) {
+        Matcher matcher = RANGE_HEADER_PATTERN.matcher(request);
+        if (matcher.find() && !matcher.group(2).isEmpty()) {
+            long end = Long.parseLong(matcher.group(2));
+            return end >= offset ? end : -1;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,91 @@
+package com.iwdael.videocache;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares parsing of player's request by {@link HttpRequestParser} with former {@link LegacyGetRequest}.
+ * <p>
+ * Run it with {@code ./gradlew :benchmark:jmh}, gc profiler reports allocation per request ({@code gc.alloc.rate.norm}).
+ * Parser is measured both created per connection (blocking server without keep-alive)
+ * and reused for sequential requests of persistent connection.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RequestParserBenchmark {
+
+    /**
+     * Request of ExoPlayer seeking in proxied video.
+     */
+    static final String REQUEST = "GET /https%3A%2F%2Fcdn.example.com%2Fvideos%2F2021%2F11%2Fmovie-1080p.mp4 HTTP/1.1\r\n" +
+            "User-Agent: ExoPlayerDemo/2.15.1 (Linux; Android 11) ExoPlayerLib/2.15.1\r\n" +
+            "Accept-Encoding: identity\r\n" +
+            "Range: bytes=1048576-\r\n" +
+            "Host: 127.0.0.1:43567\r\n" +
+            "Connection: Keep-Alive\r\n" +
+            "Icy-MetaData: 1\r\n" +
+            "\r\n";
+
+    private byte[] request;
+    private ByteArrayInputStream connection;
+    private HttpRequestParser connectionParser;
+
+    @Setup
+    public void setUp() throws IOException {
+        request = REQUEST.getBytes(HttpRequestParser.ASCII);
+        connection = new ByteArrayInputStream(request);
+        connectionParser = new HttpRequestParser();
+        checkSameResult();
+    }
+
+    @Benchmark
+    public LegacyGetRequest legacyGetRequest() throws IOException {
+        return LegacyGetRequest.read(new ByteArrayInputStream(request));
+    }
+
+    @Benchmark
+    public GetRequest parserPerConnection() throws IOException {
+        return new HttpRequestParser().read(new ByteArrayInputStream(request));
+    }
+
+    @Benchmark
+    public GetRequest parserKeepAlive() throws IOException {
+        connection.reset(); // next request of the same connection
+        return connectionParser.read(connection);
+    }
+
+    /**
+     * Parser with headers decoded, as it is done for request creating new source.
+     */
+    @Benchmark
+    public void parserKeepAliveWithHeaders(Blackhole blackhole) throws IOException {
+        connection.reset();
+        GetRequest request = connectionParser.read(connection);
+        blackhole.consume(request.headers());
+    }
+
+    /**
+     * Makes sure both parsers understand benchmark's request in the same way.
+     */
+    private void checkSameResult() throws IOException {
+        LegacyGetRequest legacy = legacyGetRequest();
+        GetRequest parsed = parserPerConnection();
+        boolean same = legacy.uri.equals(parsed.uri) && legacy.head == parsed.head && legacy.partial == parsed.partial
+                && legacy.rangeOffset == parsed.rangeOffset && legacy.rangeEnd == parsed.rangeEnd
+                && legacy.keepAlive == parsed.keepAlive && legacy.headers.equals(parsed.headers());
+        if (!same) {
+            throw new IllegalStateException("Parsers disagree: " + legacy.raw + " is parsed as " + parsed);
+        }
+    }
+}
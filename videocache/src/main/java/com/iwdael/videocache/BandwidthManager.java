@@ -0,0 +1,122 @@
+package com.iwdael.videocache;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import static com.iwdael.videocache.Preconditions.checkArgument;
+
+/**
+ * Token buckets limiting speed of origin reads of whole {@link HttpProxyCacheServer}.
+ * <p>
+ * Every read is charged to global bucket and bucket of its {@link TrafficClass}. Buckets may go into debt,
+ * next read of the same bucket waits until debt is paid, so data is throttled by TCP flow control of origin connection.
+ * Background reads don't take global tokens while any foreground read is waiting for them.
+ */
+final class BandwidthManager {
+
+    static final BandwidthManager UNLIMITED = new BandwidthManager(0, new EnumMap<TrafficClass, Long>(TrafficClass.class));
+
+    private final Bucket global;
+    private final Map<TrafficClass, Bucket> classes = new EnumMap<>(TrafficClass.class);
+    private final boolean unlimited;
+    private int waitingForeground;
+
+    /**
+     * @param globalRate max bytes per second for all reads, {@code 0} if not limited.
+     * @param classRates max bytes per second for reads of particular class, absent classes are not limited.
+     */
+    BandwidthManager(long globalRate, Map<TrafficClass, Long> classRates) {
+        this.global = new Bucket(globalRate);
+        boolean limited = globalRate > 0;
+        for (TrafficClass trafficClass : TrafficClass.values()) {
+            Long rate = classRates.get(trafficClass);
+            classes.put(trafficClass, new Bucket(rate != null ? rate : 0));
+            limited |= rate != null && rate > 0;
+        }
+        this.unlimited = !limited;
+    }
+
+    /**
+     * Charges bytes read from origin, waits while global bucket or bucket of class is in debt.
+     */
+    void consume(TrafficClass trafficClass, int bytes) throws InterruptedException {
+        if (unlimited) {
+            return;
+        }
+        Bucket bucket = classes.get(trafficClass);
+        synchronized (this) {
+            boolean waitingForGlobal = false;
+            try {
+                while (true) {
+                    long now = System.currentTimeMillis();
+                    global.refill(now);
+                    bucket.refill(now);
+                    boolean yieldToForeground = !trafficClass.foreground && waitingForeground > 0;
+                    if (!yieldToForeground && global.tokens >= 0 && bucket.tokens >= 0) {
+                        global.take(bytes);
+                        bucket.take(bytes);
+                        return;
+                    }
+                    // only foreground reader limited by global bucket (not by its own class) holds background back
+                    boolean waitsForGlobal = trafficClass.foreground && bucket.tokens >= 0;
+                    if (waitsForGlobal != waitingForGlobal) {
+                        waitingForGlobal = waitsForGlobal;
+                        onForegroundWaitingChanged(waitsForGlobal);
+                    }
+                    long delay = Math.max(global.timeToPay(), bucket.timeToPay());
+                    // yielding reader is woken by the last foreground one, delay is just a safety net then
+                    wait(Math.max(delay, yieldToForeground ? 50 : 1));
+                }
+            } finally {
+                if (waitingForGlobal) {
+                    onForegroundWaitingChanged(false);
+                }
+            }
+        }
+    }
+
+    private void onForegroundWaitingChanged(boolean waiting) {
+        waitingForeground += waiting ? 1 : -1;
+        if (waitingForeground == 0) {
+            notifyAll();
+        }
+    }
+
+    private static final class Bucket {
+
+        private static final long BURST_MILLIS = 250;
+
+        private final long rate;
+        private final long capacity;
+        private long tokens;
+        private long refillTime = System.currentTimeMillis();
+
+        Bucket(long rate) {
+            checkArgument(rate >= 0, "Rate can't be negative!");
+            this.rate = rate;
+            this.capacity = Math.max(rate * BURST_MILLIS / 1000, ProxyCacheUtils.DEFAULT_BUFFER_SIZE);
+            this.tokens = capacity;
+        }
+
+        void refill(long now) {
+            long added = rate > 0 ? (now - refillTime) * rate / 1000 : 0;
+            if (added > 0) { // time is moved only together with tokens, so slow rates don't lose fractions
+                tokens = Math.min(capacity, tokens + added);
+                refillTime = now;
+            }
+        }
+
+        void take(int bytes) {
+            if (rate > 0) {
+                tokens -= bytes;
+            }
+        }
+
+        /**
+         * Returns milliseconds left until bucket is out of debt.
+         */
+        long timeToPay() {
+            return rate > 0 && tokens < 0 ? -tokens * 1000 / rate + 1 : 0;
+        }
+    }
+}
@@ -2,6 +2,9 @@ package com.iwdael.videocache;
 
 import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 import java.util.Arrays;
 import java.util.List;
 
@@ -50,6 +53,20 @@ public class ByteArrayCache implements Cache {
         data = appendedData;
     }
 
+    @Override
+    public long transferTo(long pointer, long count, WritableByteChannel target) throws ProxyCacheException {
+        byte[] data = this.data;
+        if (pointer >= data.length) {
+            return 0;
+        }
+        int length = (int) Math.min(count, data.length - pointer);
+        try {
+            return target.write(ByteBuffer.wrap(data, (int) pointer, length));
+        } catch (IOException e) {
+            throw new ProxyCacheException("Error transferring " + length + " bytes from memory cache", e);
+        }
+    }
+
     @Override
     public void close() throws ProxyCacheException {
     }
@@ -64,6 +81,14 @@ public class ByteArrayCache implements Cache {
         return completed;
     }
 
+    @Override
+    public void clear() throws ProxyCacheException {
+        if (completed) {
+            throw new ProxyCacheException("Error clearing completed memory cache");
+        }
+        data = new byte[0];
+    }
+
 
     @Override
     public void putPatch(long start, long end) {
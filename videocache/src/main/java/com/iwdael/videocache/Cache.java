@@ -1,6 +1,7 @@
 package com.iwdael.videocache;
 
 import java.io.File;
+import java.nio.channels.WritableByteChannel;
 import java.util.List;
 
 /**
@@ -16,12 +17,30 @@ public interface Cache {
 
     void write(byte[] data, long pointer, int offset, int length) throws ProxyCacheException;
 
+    /**
+     * Transfers cached bytes directly to channel without copying them through java heap (if possible).
+     *
+     * @param pointer position of first byte to transfer.
+     * @param count   max count of bytes to transfer, all of them must be already cached.
+     * @param target  a channel to write data to.
+     * @return count of transferred bytes.
+     * @throws ProxyCacheException if error occur while transferring data.
+     */
+    long transferTo(long pointer, long count, WritableByteChannel target) throws ProxyCacheException;
+
     void close() throws ProxyCacheException;
 
     void complete() throws ProxyCacheException;
 
     boolean isCompleted();
 
+    /**
+     * Drops all cached data and its patches, e.g. when resource of source is changed since it was cached.
+     *
+     * @throws ProxyCacheException if cache is completed or error occur while truncating data.
+     */
+    void clear() throws ProxyCacheException;
+
     void putPatch(long start, long end);
 
     List<CachePatch> externalPatch(long start, long end);
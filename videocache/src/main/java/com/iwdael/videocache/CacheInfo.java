@@ -10,11 +10,22 @@ public class CacheInfo {
     public final String url;
     public final long length;
     public final String mime;
+    /**
+     * Validators of resource: values of {@code ETag} and {@code Last-Modified} response headers or {@code null}.
+     */
+    public final String etag;
+    public final String lastModified;
 
     public CacheInfo(String url, long length, String mime) {
+        this(url, length, mime, null, null);
+    }
+
+    public CacheInfo(String url, long length, String mime, String etag, String lastModified) {
         this.url = url;
         this.length = length;
         this.mime = mime;
+        this.etag = etag;
+        this.lastModified = lastModified;
     }
 
     @Override
@@ -23,6 +34,8 @@ public class CacheInfo {
                 "url='" + url + '\'' +
                 ", length=" + length +
                 ", mime='" + mime + '\'' +
+                ", etag='" + etag + '\'' +
+                ", lastModified='" + lastModified + '\'' +
                 '}';
     }
 }
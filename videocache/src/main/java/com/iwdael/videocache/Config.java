@@ -1,11 +1,14 @@
 package com.iwdael.videocache;
 
 import com.iwdael.videocache.file.DiskUsage;
+import com.iwdael.videocache.file.FileCache;
 import com.iwdael.videocache.file.FileNameGenerator;
 import com.iwdael.videocache.headers.HeaderInjector;
 import com.iwdael.videocache.sourcestorage.Storage;
 
 import java.io.File;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
 
 /**
  * Configuration for proxy cache.
@@ -21,8 +24,27 @@ public class Config {
     public final HeaderInjector headerInjector;
     public final SourceCreator<Source> sourceCreator;
     public final String host;
+    public final int nioEventLoops;
+    public final ExecutorService socketExecutor;
+    public final ExecutorService sourceReaderExecutor;
+    public final int keepAliveTimeout;
+    public final int keepAliveMaxRequests;
+    public final int sourceConnections;
+    public final int maxSourceConnections;
+    public final long readAheadBytes;
+    public final int readAheadSeconds;
+    public final RetryPolicy retryPolicy;
+    public final RangeCachePolicy rangeCachePolicy;
+    public final long maxBandwidth;
+    public final Map<TrafficClass, Long> classBandwidth;
+    public final boolean hls;
+    public final int hlsReadAheadSegments;
 
-    Config(File cacheRoot, FileNameGenerator fileNameGenerator, DiskUsage diskUsage, Storage storage, HeaderInjector headerInjector, SourceCreator<Source> sourceCreator, String host) {
+    Config(File cacheRoot, FileNameGenerator fileNameGenerator, DiskUsage diskUsage, Storage storage, HeaderInjector headerInjector, SourceCreator<Source> sourceCreator, String host, int nioEventLoops,
+           ExecutorService socketExecutor, ExecutorService sourceReaderExecutor, int keepAliveTimeout, int keepAliveMaxRequests,
+           int sourceConnections, int maxSourceConnections, long readAheadBytes, int readAheadSeconds,
+           RetryPolicy retryPolicy, RangeCachePolicy rangeCachePolicy, long maxBandwidth, Map<TrafficClass, Long> classBandwidth,
+           boolean hls, int hlsReadAheadSegments) {
         this.cacheRoot = cacheRoot;
         this.fileNameGenerator = fileNameGenerator;
         this.diskUsage = diskUsage;
@@ -30,6 +52,21 @@ public class Config {
         this.headerInjector = headerInjector;
         this.sourceCreator = sourceCreator;
         this.host = host;
+        this.nioEventLoops = nioEventLoops;
+        this.socketExecutor = socketExecutor;
+        this.sourceReaderExecutor = sourceReaderExecutor;
+        this.keepAliveTimeout = keepAliveTimeout;
+        this.keepAliveMaxRequests = keepAliveMaxRequests;
+        this.sourceConnections = sourceConnections;
+        this.maxSourceConnections = maxSourceConnections;
+        this.readAheadBytes = readAheadBytes;
+        this.readAheadSeconds = readAheadSeconds;
+        this.retryPolicy = retryPolicy;
+        this.rangeCachePolicy = rangeCachePolicy;
+        this.maxBandwidth = maxBandwidth;
+        this.classBandwidth = classBandwidth;
+        this.hls = hls;
+        this.hlsReadAheadSegments = hlsReadAheadSegments;
     }
 
     File generateCacheFile(String url) {
@@ -37,4 +74,14 @@ public class Config {
         return new File(cacheRoot, name);
     }
 
+    /**
+     * Returns cache file for url belonging to group (e.g. HLS segment) or plain cache file if group is {@code null}.
+     */
+    File generateCacheFile(String url, String group) {
+        if (group == null) {
+            return generateCacheFile(url);
+        }
+        return new File(FileCache.groupDirectory(cacheRoot, group), fileNameGenerator.generate(url));
+    }
+
 }
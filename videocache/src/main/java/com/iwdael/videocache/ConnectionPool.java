@@ -0,0 +1,304 @@
+package com.iwdael.videocache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+import static com.iwdael.videocache.Preconditions.checkArgument;
+import static com.iwdael.videocache.ProxyCacheUtils.DEFAULT_BUFFER_SIZE;
+
+/**
+ * Persistent connections to origins shared by {@link PooledHttpSource}s.
+ * <p>
+ * Connection released after complete response is kept idle and reused by next request to the same host,
+ * so seeks and retries don't pay for TCP and TLS handshakes. Count of connections to single host is limited:
+ * request waits for connection released by other source if limit is reached. Connections idle longer than
+ * keep-alive timeout are closed by background thread.
+ */
+public final class ConnectionPool {
+
+    private static final Logger LOG = LoggerFactory.getLogger("ConnectionPool");
+
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 6;
+    public static final long DEFAULT_KEEP_ALIVE = 60 * 1000;
+
+    private final int maxConnectionsPerHost;
+    private final long keepAlive;
+    private final Map<String, Host> hosts = new HashMap<>();
+    private boolean cleanupRunning;
+
+    public ConnectionPool() {
+        this(DEFAULT_MAX_CONNECTIONS_PER_HOST, DEFAULT_KEEP_ALIVE);
+    }
+
+    /**
+     * @param maxConnectionsPerHost max count of open (idle or busy) connections to single host.
+     * @param keepAlive             time in milliseconds idle connection is kept open.
+     */
+    public ConnectionPool(int maxConnectionsPerHost, long keepAlive) {
+        checkArgument(maxConnectionsPerHost > 0, "Connections count must be positive!");
+        checkArgument(keepAlive >= 0, "Keep-alive time must not be negative!");
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+        this.keepAlive = keepAlive;
+    }
+
+    /**
+     * Returns idle connection to url's host or opens new one, waits while host has max count of connections.
+     *
+     * @param timeout connect and read timeout in milliseconds, also max time of waiting for connection released by other source.
+     */
+    Connection acquire(URL url, int timeout) throws IOException, ProxyCacheException {
+        String key = key(url);
+        long deadline = System.currentTimeMillis() + timeout;
+        synchronized (this) {
+            Host host = host(key);
+            while (true) {
+                Connection idle = host.idle.pollFirst();
+                if (idle != null) {
+                    try {
+                        idle.socket.setSoTimeout(timeout);
+                        idle.reused = true;
+                        return idle;
+                    } catch (IOException e) {
+                        host.connections--;
+                        ProxyCacheUtils.close(idle.socket);
+                        continue;
+                    }
+                }
+                if (host.connections < maxConnectionsPerHost) {
+                    host.connections++;
+                    break;
+                }
+                long waitTime = deadline - System.currentTimeMillis();
+                if (waitTime <= 0) {
+                    throw new ProxyCacheException("Timeout waiting for connection to " + key + ": all " + maxConnectionsPerHost + " connections are busy");
+                }
+                try {
+                    wait(waitTime);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedProxyCacheException("Waiting for connection to " + key + " is interrupted", e);
+                }
+            }
+        }
+        Socket socket = null;
+        try {
+            socket = connect(url, timeout);
+            return new Connection(key, socket);
+        } catch (IOException | RuntimeException e) {
+            ProxyCacheUtils.close(socket);
+            onClosed(key);
+            throw e;
+        }
+    }
+
+    /**
+     * Returns connection to pool.
+     *
+     * @param reusable {@code false} if connection is in unknown state (e.g. response isn't read completely),
+     *                 such connection is closed.
+     */
+    void release(Connection connection, boolean reusable) {
+        if (!reusable || keepAlive == 0) {
+            close(connection);
+            return;
+        }
+        synchronized (this) {
+            connection.idleSince = System.currentTimeMillis();
+            host(connection.key).idle.addFirst(connection);
+            notifyAll();
+            if (!cleanupRunning) {
+                cleanupRunning = true;
+                Thread cleanup = new Thread(new CleanupRunnable(), "ConnectionPool cleanup");
+                cleanup.setDaemon(true);
+                cleanup.start();
+            }
+        }
+    }
+
+    void close(Connection connection) {
+        ProxyCacheUtils.close(connection.socket);
+        onClosed(connection.key);
+    }
+
+    /**
+     * Closes all idle connections.
+     */
+    public void evictAll() {
+        evict(Long.MAX_VALUE);
+    }
+
+    /**
+     * Closes connections idle since given time.
+     *
+     * @return time when next idle connection expires or {@code -1} if there are no idle connections.
+     */
+    private long evict(long idleSince) {
+        Deque<Connection> expired = new ArrayDeque<>();
+        long nextExpiration = -1;
+        synchronized (this) {
+            for (Iterator<Host> hostIterator = hosts.values().iterator(); hostIterator.hasNext(); ) {
+                Host host = hostIterator.next();
+                for (Iterator<Connection> iterator = host.idle.iterator(); iterator.hasNext(); ) {
+                    Connection connection = iterator.next();
+                    if (connection.idleSince <= idleSince) {
+                        iterator.remove();
+                        host.connections--;
+                        expired.add(connection);
+                    } else {
+                        long expiration = connection.idleSince + keepAlive;
+                        nextExpiration = nextExpiration == -1 ? expiration : Math.min(nextExpiration, expiration);
+                    }
+                }
+                if (host.connections == 0) {
+                    hostIterator.remove();
+                }
+            }
+            if (!expired.isEmpty()) {
+                notifyAll();
+            }
+        }
+        for (Connection connection : expired) {
+            ProxyCacheUtils.close(connection.socket);
+        }
+        return nextExpiration;
+    }
+
+    private synchronized void onClosed(String key) {
+        Host host = host(key);
+        host.connections--;
+        if (host.connections == 0) {
+            hosts.remove(key);
+        }
+        notifyAll();
+    }
+
+    private boolean hasIdle() {
+        for (Host host : hosts.values()) {
+            if (!host.idle.isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Host host(String key) {
+        Host host = hosts.get(key);
+        if (host == null) {
+            host = new Host();
+            hosts.put(key, host);
+        }
+        return host;
+    }
+
+    private Socket connect(URL url, int timeout) throws IOException {
+        boolean https = "https".equalsIgnoreCase(url.getProtocol());
+        int port = url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+        Socket socket = new Socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.connect(new InetSocketAddress(url.getHost(), port), timeout);
+            socket.setSoTimeout(timeout);
+            if (!https) {
+                return socket;
+            }
+            SSLSocketFactory factory = HttpsURLConnection.getDefaultSSLSocketFactory();
+            SSLSocket sslSocket = (SSLSocket) factory.createSocket(socket, url.getHost(), port, true);
+            sslSocket.startHandshake();
+            if (!HttpsURLConnection.getDefaultHostnameVerifier().verify(url.getHost(), sslSocket.getSession())) {
+                ProxyCacheUtils.close(sslSocket);
+                throw new IOException("Hostname " + url.getHost() + " isn't verified");
+            }
+            return sslSocket;
+        } catch (IOException | RuntimeException e) {
+            ProxyCacheUtils.close(socket);
+            throw e;
+        }
+    }
+
+    private static String key(URL url) {
+        int port = url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+        return url.getProtocol().toLowerCase(Locale.US) + "://" + url.getHost().toLowerCase(Locale.US) + ":" + port;
+    }
+
+    private static final class Host {
+
+        final Deque<Connection> idle = new ArrayDeque<>();
+        int connections;
+    }
+
+    /**
+     * Open socket to origin with buffered streams. Used by single source at a time.
+     */
+    static final class Connection {
+
+        final String key;
+        final Socket socket;
+        final InputStream in;
+        final OutputStream out;
+        /**
+         * {@code true} if connection was used for previous requests, server could have closed it since then.
+         */
+        boolean reused;
+        long idleSince;
+
+        Connection(String key, Socket socket) throws IOException {
+            this.key = key;
+            this.socket = socket;
+            this.in = new BufferedInputStream(socket.getInputStream(), DEFAULT_BUFFER_SIZE);
+            this.out = new BufferedOutputStream(socket.getOutputStream(), DEFAULT_BUFFER_SIZE);
+        }
+
+        @Override
+        public String toString() {
+            return "Connection{" + key + ", reused=" + reused + '}';
+        }
+    }
+
+    private final class CleanupRunnable implements Runnable {
+
+        @Override
+        public void run() {
+            while (true) {
+                long nextExpiration = evict(System.currentTimeMillis() - keepAlive);
+                synchronized (ConnectionPool.this) {
+                    if (nextExpiration == -1) {
+                        if (!hasIdle()) {
+                            cleanupRunning = false;
+                            return;
+                        }
+                        continue; // connection is released after eviction
+                    }
+                    long delay = nextExpiration - System.currentTimeMillis();
+                    if (delay > 0) {
+                        try {
+                            ConnectionPool.this.wait(delay);
+                        } catch (InterruptedException e) {
+                            LOG.debug("Cleanup of connection pool is interrupted");
+                            cleanupRunning = false;
+                            return;
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
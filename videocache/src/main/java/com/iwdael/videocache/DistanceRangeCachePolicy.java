@@ -0,0 +1,25 @@
+package com.iwdael.videocache;
+
+import static com.iwdael.videocache.Preconditions.checkArgument;
+
+/**
+ * {@link RangeCachePolicy} that caches partial requests not too far from already cached data.
+ * Use {@link Long#MAX_VALUE} as max distance to cache all requests.
+ */
+public class DistanceRangeCachePolicy implements RangeCachePolicy {
+
+    private final long maxDistance;
+
+    /**
+     * @param maxDistance max count of bytes between cached data and requested offset, request is served directly if distance is bigger.
+     */
+    public DistanceRangeCachePolicy(long maxDistance) {
+        checkArgument(maxDistance >= 0, "Max distance can't be negative!");
+        this.maxDistance = maxDistance;
+    }
+
+    @Override
+    public boolean isUseCache(String url, long offset, long sourceLength, long distance) {
+        return distance <= maxDistance;
+    }
+}
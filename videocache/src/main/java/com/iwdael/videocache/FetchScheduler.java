@@ -0,0 +1,241 @@
+package com.iwdael.videocache;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Distributes missing bytes of demanded range between concurrent source readers of {@link ProxyCache}.
+ * <p>
+ * Every reader fetches its own {@link Segment}. Segments never overlap: reader gets first missing range
+ * that isn't claimed by others or, if there is no such range, second half of largest segment in progress.
+ * Reader working alone gets whole missing range, so it is fetched with single origin request.
+ * <p>
+ * Scheduler follows the newest demand: if demanded byte is far ahead of any reader (e.g. player seeks),
+ * segment covering it is cut at demanded offset and, if there is no free reader, reader farthest from it is preempted.
+ * Abandoned ranges are kept and fetched later when there is nothing to fetch for the current demand.
+ */
+final class FetchScheduler {
+
+    static final long MIN_SEGMENT_SIZE = 1024 * 1024;
+    static final long MAX_DEMAND_DISTANCE = 512 * 1024;
+    private static final int MAX_ABANDONED_RANGES = 16;
+
+    private final Cache cache;
+    private final List<Segment> segments = new ArrayList<>();
+    private final Deque<CachePatch> abandoned = new ArrayDeque<>();
+    private long target = -1;
+    private long limit;
+
+    FetchScheduler(Cache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Sets range to be fetched, previous demand becomes low priority.
+     *
+     * @param pointer         position of first byte demanded by client.
+     * @param limit           position after last byte to be fetched.
+     * @param readerAvailable {@code true} if caller is able to start one more reader,
+     *                        otherwise some reader is preempted if demanded byte isn't going to be fetched soon.
+     */
+    synchronized void demand(long pointer, long limit, boolean readerAvailable) {
+        if (pointer == target && limit == this.limit) {
+            return;
+        }
+        if (target >= 0 && target < this.limit && (pointer < target || pointer >= this.limit)) {
+            abandon(target, this.limit);
+        }
+        this.target = pointer;
+        this.limit = limit;
+        if (pointer >= limit || cache.externalPatch(pointer, pointer + 1).isEmpty()) {
+            return;
+        }
+        Segment covering = find(pointer);
+        if (covering != null) {
+            if (pointer - covering.position <= MAX_DEMAND_DISTANCE) {
+                return; // reader is about to fetch demanded byte
+            }
+            covering.end = pointer; // cut segment, tail is claimed again for current demand
+        }
+        if (!readerAvailable && !segments.isEmpty()) {
+            preempt(farthestFrom(pointer));
+        }
+    }
+
+    synchronized boolean isIdle() {
+        return segments.isEmpty();
+    }
+
+    /**
+     * Claims next segment to be fetched.
+     *
+     * @return segment or {@code null} if there is nothing to fetch.
+     */
+    synchronized Segment next() {
+        Segment segment = target >= 0 ? claimMissing(target, limit, false) : null;
+        if (segment == null) {
+            segment = splitLargest();
+        }
+        for (Iterator<CachePatch> iterator = abandoned.iterator(); segment == null && iterator.hasNext(); ) {
+            CachePatch range = iterator.next();
+            segment = claimMissing(range.start, range.end, true);
+            if (segment == null && cache.externalPatch(range.start, range.end).isEmpty()) {
+                iterator.remove();
+            }
+        }
+        return segment;
+    }
+
+    /**
+     * Claims range for extra reader regardless of current demand, e.g. index of media file player is going to request soon.
+     * Segment covering start of range is cut at it, so range is fetched in parallel with the rest of that segment.
+     *
+     * @return segment or {@code null} if range is already cached or its start is being fetched.
+     */
+    synchronized Segment claimUrgent(long start, long end) {
+        Segment covering = find(start);
+        if (covering != null) {
+            if (covering.position >= start) {
+                return null;
+            }
+            covering.end = start;
+        }
+        return claimMissing(start, end, false);
+    }
+
+    private Segment claimMissing(long start, long end, boolean abandoned) {
+        if (start >= end) {
+            return null;
+        }
+        for (CachePatch missing : cache.externalPatch(start, end)) {
+            Segment segment = claimUnclaimed(missing.start, missing.end, abandoned);
+            if (segment != null) {
+                return segment;
+            }
+        }
+        return null;
+    }
+
+    synchronized void finish(Segment segment) {
+        segments.remove(segment);
+    }
+
+    private Segment claimUnclaimed(long start, long end, boolean abandoned) {
+        long candidate = start;
+        for (Segment segment : segments) { // sorted by start
+            if (segment.end <= candidate) {
+                continue;
+            }
+            if (segment.start > candidate) {
+                break;
+            }
+            candidate = segment.end;
+        }
+        if (candidate >= end) {
+            return null;
+        }
+        long segmentEnd = end;
+        for (Segment segment : segments) {
+            if (segment.start >= candidate) {
+                segmentEnd = Math.min(segmentEnd, segment.start);
+                break;
+            }
+        }
+        return add(new Segment(candidate, segmentEnd, abandoned));
+    }
+
+    private Segment splitLargest() {
+        Segment largest = null;
+        for (Segment segment : segments) {
+            if (largest == null || segment.remaining() > largest.remaining()) {
+                largest = segment;
+            }
+        }
+        if (largest == null || largest.remaining() < 2 * MIN_SEGMENT_SIZE) {
+            return null;
+        }
+        long middle = largest.position + largest.remaining() / 2;
+        Segment tail = new Segment(middle, largest.end, largest.abandoned);
+        largest.end = middle;
+        return add(tail);
+    }
+
+    private Segment find(long pointer) {
+        for (Segment segment : segments) {
+            if (segment.start <= pointer && pointer < segment.end) {
+                return segment;
+            }
+        }
+        return null;
+    }
+
+    private Segment farthestFrom(long pointer) {
+        Segment farthest = null;
+        for (Segment segment : segments) {
+            if (farthest == null || Math.abs(segment.position - pointer) > Math.abs(farthest.position - pointer)) {
+                farthest = segment;
+            }
+        }
+        return farthest;
+    }
+
+    /**
+     * Stops segment after chunk being read now, its reader takes next segment for current demand.
+     */
+    private void preempt(Segment segment) {
+        long position = segment.position;
+        if (position < segment.end) {
+            abandon(position, segment.end);
+        }
+        segment.end = position;
+    }
+
+    private void abandon(long start, long end) {
+        abandoned.addFirst(new CachePatch(cache.key(), start, end));
+        if (abandoned.size() > MAX_ABANDONED_RANGES) {
+            abandoned.removeLast();
+        }
+    }
+
+    private Segment add(Segment segment) {
+        int index = 0;
+        while (index < segments.size() && segments.get(index).start < segment.start) {
+            index++;
+        }
+        segments.add(index, segment);
+        return segment;
+    }
+
+    /**
+     * Range [start, end) fetched by single source reader. End may be moved back when segment is split.
+     */
+    static final class Segment {
+
+        final long start;
+        final boolean abandoned;
+        volatile long end;
+        volatile long position;
+
+        /**
+         * @param abandoned {@code true} if segment belongs to range abandoned by previous demand.
+         */
+        Segment(long start, long end, boolean abandoned) {
+            this.start = start;
+            this.end = end;
+            this.abandoned = abandoned;
+            this.position = start;
+        }
+
+        long remaining() {
+            return end - position;
+        }
+
+        @Override
+        public String toString() {
+            return "Segment{" + start + ".." + end + ", position=" + position + '}';
+        }
+    }
+}
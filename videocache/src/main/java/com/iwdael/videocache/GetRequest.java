@@ -1,89 +1,71 @@
 package com.iwdael.videocache;
 
-import android.text.TextUtils;
-
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.util.HashMap;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
-import static com.iwdael.videocache.Preconditions.checkNotNull;
 
 /**
- * Model for Http GET request.
+ * Model for Http GET (or HEAD) request.
  *
  * @author Alexey Danilov (danikula@gmail.com).
  */
 class GetRequest {
 
-    private static final Pattern RANGE_HEADER_PATTERN = Pattern.compile("[R,r]ange:[ ]?bytes=(\\d*)-");
-    private static final Pattern URL_PATTERN = Pattern.compile("GET /(.*) HTTP");
-
     public final String uri;
+    /**
+     * {@code true} for HEAD request: only headers must be sent in response.
+     */
+    public final boolean head;
     public final long rangeOffset;
+    /**
+     * Last requested byte (inclusive) or {@code -1} if range is open ("bytes=100-").
+     */
+    public final long rangeEnd;
     public final boolean partial;
-    public final Map<String, String> headers;
-    public final String raw;
+    public final boolean keepAlive;
+    private final byte[] rawHeaders;
+    private Map<String, String> headers;
 
-    public GetRequest(String request) {
-        checkNotNull(request);
-        raw = request;
-        long offset = findRangeOffset(request);
-        this.rangeOffset = Math.max(0, offset);
-        this.partial = offset >= 0;
-        this.uri = findUri(request);
-        this.headers = findHeaders(request);
-    }
-
-    private Map<String, String> findHeaders(String request) {
-        Map<String, String> headers = new HashMap<>();
-        String[] lines = request.split("\n");
-        for (String line : lines) {
-            if (!line.contains(":")) continue;
-            int index = line.indexOf(":");
-            String key = line.substring(0, index).trim();
-            String value = line.substring(index + 1).trim();
-            headers.put(key, value);
-        }
-        return headers;
+    GetRequest(boolean head, String uri, long rangeOffset, long rangeEnd, boolean keepAlive, byte[] rawHeaders) {
+        this.head = head;
+        this.uri = uri;
+        this.rangeOffset = Math.max(0, rangeOffset);
+        this.partial = rangeOffset >= 0;
+        this.rangeEnd = partial ? rangeEnd : -1;
+        this.keepAlive = keepAlive;
+        this.rawHeaders = rawHeaders;
     }
 
+    /**
+     * Reads single request from stream.
+     *
+     * @return request or {@code null} if stream is closed before any request data.
+     * @see HttpRequestParser#read(InputStream) reading several requests from one connection.
+     */
     public static GetRequest read(InputStream inputStream) throws IOException {
-        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, "UTF-8"));
-        StringBuilder stringRequest = new StringBuilder();
-        String line;
-        while (!TextUtils.isEmpty(line = reader.readLine())) { // until new line (headers ending)
-            stringRequest.append(line).append('\n');
-        }
-        return new GetRequest(stringRequest.toString());
-    }
-
-    private long findRangeOffset(String request) {
-        Matcher matcher = RANGE_HEADER_PATTERN.matcher(request);
-        if (matcher.find()) {
-            String rangeValue = matcher.group(1);
-            return Long.parseLong(rangeValue);
-        }
-        return -1;
+        return new HttpRequestParser().read(inputStream);
     }
 
-    private String findUri(String request) {
-        Matcher matcher = URL_PATTERN.matcher(request);
-        if (matcher.find()) {
-            return matcher.group(1);
+    /**
+     * Returns all request headers. Headers are decoded lazily, because they are used only for opening new source.
+     *
+     * @return map of header names to values.
+     */
+    public synchronized Map<String, String> headers() {
+        if (headers == null) {
+            headers = HttpRequestParser.parseHeaders(rawHeaders);
         }
-        throw new IllegalArgumentException("Invalid request `" + request + "`: url not found!");
+        return headers;
     }
 
     @Override
     public String toString() {
         return "GetRequest{" +
-                "rangeOffset=" + rangeOffset +
+                "head=" + head +
+                ", rangeOffset=" + rangeOffset +
+                ", rangeEnd=" + rangeEnd +
                 ", partial=" + partial +
+                ", keepAlive=" + keepAlive +
                 ", uri='" + uri + '\'' +
                 '}';
     }
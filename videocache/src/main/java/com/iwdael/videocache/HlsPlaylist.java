@@ -0,0 +1,212 @@
+package com.iwdael.videocache;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * HLS playlist (master or media one) with uris resolved against playlist's url.
+ * <p>
+ * Only uris are touched by rewriting: segments and variant playlists (lines without {@code #}) and
+ * {@code URI} attributes of tags (keys, initialization sections, alternative renditions). Everything else is kept as is.
+ */
+final class HlsPlaylist {
+
+    static final String MIME = "application/vnd.apple.mpegurl";
+
+    private static final String HEADER = "#EXTM3U";
+    private static final String STREAM_INF = "#EXT-X-STREAM-INF";
+    private static final String END_LIST = "#EXT-X-ENDLIST";
+    private static final String BYTE_RANGE = "#EXT-X-BYTERANGE:";
+    private static final Pattern URI_ATTRIBUTE = Pattern.compile("URI=\"([^\"]*)\"");
+
+    private final String url;
+    private final List<String> lines;
+    private final List<Segment> segments;
+    private final boolean master;
+    private final boolean ended;
+
+    private HlsPlaylist(String url, List<String> lines, List<Segment> segments, boolean master, boolean ended) {
+        this.url = url;
+        this.lines = lines;
+        this.segments = segments;
+        this.master = master;
+        this.ended = ended;
+    }
+
+    /**
+     * Returns {@code true} if url points to HLS playlist, i.e. its path has {@code .m3u8} extension.
+     */
+    static boolean isPlaylistUrl(String url) {
+        int end = url.length();
+        int query = url.indexOf('?');
+        int fragment = url.indexOf('#');
+        end = query != -1 ? Math.min(end, query) : end;
+        end = fragment != -1 ? Math.min(end, fragment) : end;
+        return url.substring(0, end).toLowerCase(Locale.US).endsWith(".m3u8");
+    }
+
+    static HlsPlaylist parse(String url, String text) throws ProxyCacheException {
+        String[] lines = text.split("\r?\n");
+        if (lines.length == 0 || !lines[0].trim().startsWith(HEADER)) {
+            throw new ProxyCacheException("Playlist " + url + " doesn't start with " + HEADER);
+        }
+        List<Segment> segments = new ArrayList<>();
+        boolean master = false;
+        boolean ended = false;
+        String byteRange = null;
+        for (String line : lines) {
+            String trimmed = line.trim();
+            if (trimmed.startsWith(STREAM_INF)) {
+                master = true;
+            } else if (trimmed.startsWith(END_LIST)) {
+                ended = true;
+            } else if (trimmed.startsWith(BYTE_RANGE)) {
+                byteRange = trimmed.substring(BYTE_RANGE.length());
+            } else if (!trimmed.isEmpty() && !trimmed.startsWith("#")) {
+                Segment previous = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+                segments.add(newSegment(url, resolve(url, trimmed), byteRange, previous));
+                byteRange = null;
+            }
+        }
+        List<String> list = new ArrayList<>(lines.length);
+        Collections.addAll(list, lines);
+        return new HlsPlaylist(url, list, master ? Collections.<Segment>emptyList() : segments, master, ended);
+    }
+
+    /**
+     * Creates segment for uri line, {@code EXT-X-BYTERANGE} value is {@code <length>[@<offset>]}.
+     * Sub-range without offset follows sub-range of previous segment.
+     */
+    private static Segment newSegment(String playlistUrl, String url, String byteRange, Segment previous) throws ProxyCacheException {
+        if (byteRange == null) {
+            return new Segment(url, 0, -1);
+        }
+        try {
+            int at = byteRange.indexOf('@');
+            long length = Long.parseLong(at == -1 ? byteRange : byteRange.substring(0, at));
+            long offset = at != -1 ? Long.parseLong(byteRange.substring(at + 1))
+                    : previous != null && previous.url.equals(url) && previous.length != -1 ? previous.offset + previous.length : 0;
+            return new Segment(url, offset, length);
+        } catch (NumberFormatException e) {
+            throw new ProxyCacheException("Playlist " + playlistUrl + " has invalid byte range `" + byteRange + "`", e);
+        }
+    }
+
+    /**
+     * Returns media segments in playback order, empty list for master playlist.
+     */
+    List<Segment> segments() {
+        return segments;
+    }
+
+    boolean isMaster() {
+        return master;
+    }
+
+    /**
+     * Returns {@code true} if playlist is complete (VOD) and won't be changed by origin.
+     */
+    boolean isEnded() {
+        return ended;
+    }
+
+    /**
+     * Returns playlist text with every http uri replaced by uri given by rewriter.
+     */
+    String rewrite(UriRewriter rewriter) {
+        StringBuilder result = new StringBuilder();
+        for (String line : lines) {
+            String trimmed = line.trim();
+            if (trimmed.isEmpty()) {
+                result.append(line);
+            } else if (trimmed.startsWith("#")) {
+                result.append(rewriteAttributes(line, rewriter));
+            } else {
+                result.append(rewriteUri(trimmed, rewriter));
+            }
+            result.append('\n');
+        }
+        return result.toString();
+    }
+
+    private String rewriteAttributes(String line, UriRewriter rewriter) {
+        Matcher matcher = URI_ATTRIBUTE.matcher(line);
+        StringBuffer result = new StringBuffer();
+        while (matcher.find()) {
+            String uri = rewriteUri(matcher.group(1), rewriter);
+            matcher.appendReplacement(result, Matcher.quoteReplacement("URI=\"" + uri + "\""));
+        }
+        matcher.appendTail(result);
+        return result.toString();
+    }
+
+    private String rewriteUri(String uri, UriRewriter rewriter) {
+        String absolute = resolve(url, uri);
+        boolean http = absolute.startsWith("http://") || absolute.startsWith("https://");
+        return http ? rewriter.rewrite(absolute) : uri; // e.g. skd:// or data: keys are left to player
+    }
+
+    private static String resolve(String base, String uri) {
+        try {
+            return new URL(new URL(base), uri).toString();
+        } catch (MalformedURLException e) {
+            return uri;
+        }
+    }
+
+    /**
+     * Media segment: whole resource or its sub-range ({@code EXT-X-BYTERANGE}).
+     */
+    static final class Segment {
+
+        /**
+         * Absolute url of resource.
+         */
+        final String url;
+        final long offset;
+        /**
+         * Length of sub-range or {@code -1} if segment is whole resource.
+         */
+        final long length;
+
+        Segment(String url, long offset, long length) {
+            this.url = url;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        /**
+         * Returns {@code true} if player's request of url starting at offset is request of this segment.
+         */
+        boolean matches(String url, long offset) {
+            return this.url.equals(url) && (length == -1 || offset >= this.offset && offset < this.offset + length);
+        }
+
+        /**
+         * Returns count of bytes from resource start to be cached for this segment.
+         */
+        long byteBudget() {
+            return length == -1 ? Long.MAX_VALUE : offset + length;
+        }
+
+        @Override
+        public String toString() {
+            return "Segment{" +
+                    "url='" + url + '\'' +
+                    ", offset=" + offset +
+                    ", length=" + length +
+                    '}';
+        }
+    }
+
+    interface UriRewriter {
+
+        String rewrite(String absoluteUrl);
+    }
+}
@@ -0,0 +1,224 @@
+package com.iwdael.videocache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.Socket;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import static com.iwdael.videocache.Preconditions.checkNotNull;
+
+/**
+ * HLS support of {@link HttpProxyCacheServer}.
+ * <p>
+ * Playlists are fetched from origin on every request (live playlists change) and sent to player with uris
+ * rewritten to proxy urls, so segments, keys and variant playlists are requested through proxy as well.
+ * Rewritten uris carry group of top-level playlist: segments are cached as separate files in group's directory
+ * and evicted together. Complete (VOD) playlists are stored in group too and used if origin is unreachable.
+ * <p>
+ * When player requests segment, next segments of the same playlist are queued to {@link Preloader} with
+ * {@link #READ_AHEAD_PRIORITY}, so they are fetched while player is idle (e.g. its buffer is full).
+ */
+final class HlsProxy {
+
+    private static final Logger LOG = LoggerFactory.getLogger("HlsProxy");
+    private static final int MAX_TRACKED_PLAYLISTS = 8;
+    private static final int MAX_PLAYLIST_SIZE = 4 * 1024 * 1024;
+    /**
+     * Segments to be played soon go ahead of preloads requested by app.
+     */
+    static final int READ_AHEAD_PRIORITY = Integer.MAX_VALUE;
+
+    private final Config config;
+    private final Callback callback;
+    private final Map<String, List<HlsPlaylist.Segment>> playlists = new LinkedHashMap<String, List<HlsPlaylist.Segment>>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, List<HlsPlaylist.Segment>> eldest) {
+            return size() > MAX_TRACKED_PLAYLISTS;
+        }
+    };
+    private final Map<String, PreloadTask> readingAhead = new HashMap<>();
+
+    interface Callback {
+
+        /**
+         * Returns proxy url for url belonging to group.
+         */
+        String proxyUrl(String url, String group);
+
+        /**
+         * Queues fetching of file's beginning into cache of group.
+         */
+        PreloadTask preload(String url, String group, long byteBudget);
+    }
+
+    HlsProxy(Config config, Callback callback) {
+        this.config = checkNotNull(config);
+        this.callback = checkNotNull(callback);
+    }
+
+    boolean isPlaylist(String url) {
+        return config.hls && HlsPlaylist.isPlaylistUrl(url);
+    }
+
+    /**
+     * Returns name of group for segments of playlist requested by player directly (not through master playlist).
+     */
+    String newGroup(String playlistUrl) {
+        return config.fileNameGenerator.generate(playlistUrl);
+    }
+
+    /**
+     * Writes rewritten playlist to socket.
+     *
+     * @return {@code true} if response is completely written and connection can be reused.
+     */
+    boolean responseToPlaylist(GetRequest request, String url, String group, Socket socket, boolean keepAlive)
+            throws IOException, ProxyCacheException {
+        HlsPlaylist playlist = loadPlaylist(request, url, group);
+        if (!playlist.isMaster()) {
+            synchronized (playlists) {
+                playlists.put(url, playlist.segments());
+            }
+        }
+        byte[] body = playlist.rewrite(uri -> callback.proxyUrl(uri, group)).getBytes("UTF-8");
+        String headers = new StringBuilder()
+                .append("HTTP/1.1 200 OK\n")
+                .append(format("Content-Length: %d\n", body.length))
+                .append(format("Content-Type: %s\n", HlsPlaylist.MIME))
+                .append("Cache-Control: no-cache\n")
+                .append(keepAlive ? "Connection: keep-alive\n" : "Connection: close\n")
+                .append("\n")
+                .toString();
+        OutputStream out = socket.getOutputStream();
+        out.write(headers.getBytes("UTF-8"));
+        if (!request.head) {
+            out.write(body);
+        }
+        out.flush();
+        return keepAlive;
+    }
+
+    /**
+     * Queues preloads of segments following requested one in its playlist.
+     *
+     * @param offset first byte requested by player, it tells apart sub-range segments of the same url.
+     */
+    void onSegmentRequest(String url, String group, long offset) {
+        Map<String, Long> budgets = new LinkedHashMap<>(); // sub-range segments of the same url are fetched by single preload
+        for (HlsPlaylist.Segment segment : nextSegments(url, offset)) {
+            Long budget = budgets.get(segment.url);
+            budgets.put(segment.url, budget == null ? segment.byteBudget() : Math.max(budget, segment.byteBudget()));
+        }
+        synchronized (readingAhead) {
+            readingAhead.values().removeIf(PreloadTask::isDone);
+            for (Map.Entry<String, Long> budget : budgets.entrySet()) {
+                String segmentUrl = budget.getKey();
+                String key = group + '\n' + segmentUrl;
+                if (!readingAhead.containsKey(key) && !config.generateCacheFile(segmentUrl, group).exists()) {
+                    readingAhead.put(key, callback.preload(segmentUrl, group, budget.getValue()));
+                }
+            }
+        }
+    }
+
+    private List<HlsPlaylist.Segment> nextSegments(String url, long offset) {
+        synchronized (playlists) {
+            for (List<HlsPlaylist.Segment> segments : playlists.values()) {
+                for (int index = 0; index < segments.size(); index++) {
+                    if (segments.get(index).matches(url, offset)) {
+                        int from = index + 1;
+                        int to = Math.min(segments.size(), from + config.hlsReadAheadSegments);
+                        return from < to ? segments.subList(from, to) : Collections.<HlsPlaylist.Segment>emptyList();
+                    }
+                }
+            }
+        }
+        return Collections.emptyList();
+    }
+
+    private HlsPlaylist loadPlaylist(GetRequest request, String url, String group) throws ProxyCacheException {
+        File stored = config.generateCacheFile(url, group);
+        String text;
+        try {
+            text = fetchPlaylist(request, url);
+        } catch (ProxyCacheException e) {
+            if (!stored.exists()) {
+                throw e;
+            }
+            LOG.warn("Error fetching playlist " + url + ", stored copy is used: " + e.getMessage());
+            return HlsPlaylist.parse(url, readStored(stored));
+        }
+        HlsPlaylist playlist = HlsPlaylist.parse(url, text);
+        if (playlist.isEnded() && !stored.exists()) {
+            store(url, text, stored);
+        }
+        return playlist;
+    }
+
+    private String fetchPlaylist(GetRequest request, String url) throws ProxyCacheException {
+        Map<String, String> headers = HttpProxyCacheServerClients.newHttpConnectionHeader(url, request, config);
+        Source source = config.sourceCreator.create(url, headers);
+        try {
+            source.open(0);
+            ByteArrayOutputStream text = new ByteArrayOutputStream();
+            byte[] buffer = new byte[ProxyCacheUtils.DEFAULT_BUFFER_SIZE];
+            int read;
+            while ((read = source.read(buffer)) != -1) {
+                text.write(buffer, 0, read);
+                if (text.size() > MAX_PLAYLIST_SIZE) {
+                    throw new ProxyCacheException("Playlist " + url + " is too large");
+                }
+            }
+            return text.toString("UTF-8");
+        } catch (IOException e) {
+            throw new ProxyCacheException("Error decoding playlist " + url, e);
+        } finally {
+            source.close();
+        }
+    }
+
+    private void store(String url, String text, File file) {
+        File directory = file.getParentFile();
+        File temp = new File(directory, file.getName() + ".download");
+        try {
+            if (!directory.exists() && !directory.mkdirs()) {
+                throw new IOException("Directory " + directory + " can't be created");
+            }
+            try (OutputStream out = new FileOutputStream(temp)) {
+                out.write(text.getBytes("UTF-8"));
+            }
+            if (!temp.renameTo(file)) {
+                throw new IOException("Error renaming " + temp + " to " + file);
+            }
+        } catch (IOException e) {
+            LOG.warn("Error storing playlist " + url, e);
+            temp.delete();
+        }
+    }
+
+    private String readStored(File file) throws ProxyCacheException {
+        try (RandomAccessFile stored = new RandomAccessFile(file, "r")) {
+            byte[] data = new byte[(int) stored.length()];
+            stored.readFully(data);
+            return new String(data, "UTF-8");
+        } catch (IOException e) {
+            throw new ProxyCacheException("Error reading stored playlist " + file, e);
+        }
+    }
+
+    private static String format(String pattern, Object... args) {
+        return String.format(Locale.US, pattern, args);
+    }
+}
@@ -6,6 +6,8 @@ import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.Socket;
+import java.nio.channels.SocketChannel;
+import java.util.List;
 import java.util.Locale;
 
 import static com.iwdael.videocache.ProxyCacheUtils.DEFAULT_BUFFER_SIZE;
@@ -17,14 +19,13 @@ import static com.iwdael.videocache.ProxyCacheUtils.DEFAULT_BUFFER_SIZE;
  */
 class HttpProxyCache extends ProxyCache {
 
-    private static final float NO_CACHE_BARRIER = .2f;
-
     private CacheListener listener;
 
     private final Config config;
 
-    public HttpProxyCache(Source source, Cache cache, Config config) {
-        super(source, cache);
+    public HttpProxyCache(Source source, Cache cache, Config config, SourceReaderPool sourceReaderPool, BandwidthManager bandwidth) {
+        super(source, cache, sourceReaderPool, config.sourceConnections,
+                new ReadAheadWindow(config.readAheadBytes, config.readAheadSeconds), config.retryPolicy, bandwidth);
         this.config = config;
     }
 
@@ -32,61 +33,125 @@ class HttpProxyCache extends ProxyCache {
         this.listener = cacheListener;
     }
 
-    public void processRequest(GetRequest request, Socket socket) throws IOException, ProxyCacheException {
+    /**
+     * Writes response for request to socket.
+     *
+     * @param keepAlive {@code true} if client asks to keep connection alive and server allows it.
+     * @return {@code true} if response is completely written and connection can be reused.
+     */
+    public boolean processRequest(GetRequest request, Socket socket, boolean keepAlive) throws IOException, ProxyCacheException {
         OutputStream out = new BufferedOutputStream(socket.getOutputStream());
-        String responseHeaders = newResponseHeaders(request);
+        if (source instanceof SourceWrapper) {
+            // unknown info is taken from response for requested offset, its data is read by the first source reader
+            ((SourceWrapper) source).fetchInfo(request.rangeOffset);
+        }
+        long length = source.length();
+        keepAlive = keepAlive && length >= 0;
+        String responseHeaders = newResponseHeaders(request, length, source.getMime(), keepAlive);
         out.write(responseHeaders.getBytes("UTF-8"));
         long offset = request.rangeOffset;
+        long end = responseEnd(request, length);
         if (isUseCache(request)) {
-            responseWithCache(out, offset);
+            responseWithCache(out, socket.getChannel(), offset, end);
         } else {
-            responseWithoutCache(out, offset);
+            responseWithoutCache(out, offset, end);
         }
+        return keepAlive;
     }
 
     private boolean isUseCache(GetRequest request) throws ProxyCacheException {
         long sourceLength = source.length();
         boolean sourceLengthKnown = sourceLength > 0;
-        // do not use cache for partial requests which too far from available cache. It seems user seek video.
-        return !sourceLengthKnown || !request.partial;
+        if (!sourceLengthKnown || !request.partial || cache.isCompleted()) {
+            return true;
+        }
+        // partial request means user seeks video, policy decides if target is worth caching into sparse file
+        long offset = request.rangeOffset;
+        return config.rangeCachePolicy.isUseCache(source.getUrl(), offset, sourceLength, distanceFromCache(offset));
+    }
+
+    /**
+     * Returns count of bytes between end of closest cached range before offset (or file start) and offset.
+     */
+    private long distanceFromCache(long offset) {
+        List<CachePatch> missing = cache.externalPatch(0, offset + 1);
+        if (missing.isEmpty()) {
+            return 0;
+        }
+        CachePatch last = missing.get(missing.size() - 1);
+        return last.end == offset + 1 ? offset - last.start : 0;
     }
 
-    private String newResponseHeaders(GetRequest request) throws IOException, ProxyCacheException {
-        String mime = source.getMime();
+    /**
+     * Returns position after last byte to be sent for request or {@link Long#MAX_VALUE} if it is unknown.
+     */
+    private static long responseEnd(GetRequest request, long length) {
+        long end = length >= 0 ? length : Long.MAX_VALUE;
+        return request.rangeEnd >= 0 ? Math.min(end, request.rangeEnd + 1) : end;
+    }
+
+    /**
+     * Builds response headers for request. Used for GET responses as well as for HEAD responses made without cache.
+     *
+     * @param length source length or negative value if it is unknown.
+     * @param mime   source mime or {@code null} if it is unknown.
+     */
+    static String newResponseHeaders(GetRequest request, long length, String mime, boolean keepAlive) {
         boolean mimeKnown = !TextUtils.isEmpty(mime);
-        long length = source.length();
         boolean lengthKnown = length >= 0;
-        long contentLength = request.partial ? length - request.rangeOffset : length;
+        long end = responseEnd(request, length);
+        long contentLength = end - request.rangeOffset;
         boolean addRange = lengthKnown && request.partial;
         return new StringBuilder()
                 .append(request.partial ? "HTTP/1.1 206 PARTIAL CONTENT\n" : "HTTP/1.1 200 OK\n")
                 .append("Accept-Ranges: bytes\n")
                 .append(lengthKnown ? format("Content-Length: %d\n", contentLength) : "")
-                .append(addRange ? format("Content-Range: bytes %d-%d/%d\n", request.rangeOffset, length - 1, length) : "")
+                .append(addRange ? format("Content-Range: bytes %d-%d/%d\n", request.rangeOffset, end - 1, length) : "")
                 .append(mimeKnown ? format("Content-Type: %s\n", mime) : "")
+                .append(keepAlive ? "Connection: keep-alive\n" : "Connection: close\n")
                 .append("\n") // headers end
                 .toString();
     }
 
-    private void responseWithCache(OutputStream out, long offset) throws ProxyCacheException, IOException {
-        byte[] buffer = new byte[DEFAULT_BUFFER_SIZE];
+    private void responseWithCache(OutputStream out, SocketChannel channel, long offset, long end) throws ProxyCacheException, IOException {
+        out.flush(); // headers must be written before data sent directly to channel
+        byte[] buffer = null;
         long pointer = offset;
-        int r;
-        while ((r = read(buffer, pointer, buffer.length)) != -1) {
-            out.write(buffer, 0, r);
-            pointer += r;
-            out.flush();
+        ReadAheadWindow.Client client = readAhead.register(offset);
+        try {
+            while (pointer < end) {
+                // cached ranges are sent with zero-copy transfer, copy loop is used only for data arriving from source
+                long transferred = channel != null ? transferCached(pointer, end - pointer, channel) : 0;
+                if (transferred > 0) {
+                    pointer += transferred;
+                    readAhead.onClientRead(client, pointer);
+                    continue;
+                }
+                buffer = buffer == null ? new byte[DEFAULT_BUFFER_SIZE] : buffer;
+                int r = read(buffer, pointer, (int) Math.min(buffer.length, end - pointer), end);
+                if (r == -1) {
+                    break;
+                }
+                out.write(buffer, 0, r);
+                pointer += r;
+                out.flush();
+                readAhead.onClientRead(client, pointer);
+            }
+        } finally {
+            readAhead.unregister(client);
         }
     }
 
-    private void responseWithoutCache(OutputStream out, long offset) throws ProxyCacheException, IOException {
+    private void responseWithoutCache(OutputStream out, long offset, long end) throws ProxyCacheException, IOException {
         SourceWrapper sourceWrapper = (SourceWrapper) this.source;
         Source newSourceNoCache = sourceWrapper.newSelf();
         try {
-            newSourceNoCache.open((int) offset);
+            newSourceNoCache.open(offset);
             byte[] buffer = new byte[DEFAULT_BUFFER_SIZE];
             int readBytes;
-            while ((readBytes = newSourceNoCache.read(buffer)) != -1) {
+            while (offset < end && (readBytes = newSourceNoCache.read(buffer)) != -1) {
+                consumeBandwidth(TrafficClass.PLAYING, readBytes);
+                readBytes = (int) Math.min(readBytes, end - offset);
                 out.write(buffer, 0, readBytes);
                 offset += readBytes;
             }
@@ -96,7 +161,7 @@ class HttpProxyCache extends ProxyCache {
         }
     }
 
-    private String format(String pattern, Object... args) {
+    private static String format(String pattern, Object... args) {
         return String.format(Locale.US, pattern, args);
     }
 
@@ -1,6 +1,7 @@
 package com.iwdael.videocache;
 
 import static com.iwdael.videocache.Preconditions.checkAllNotNull;
+import static com.iwdael.videocache.Preconditions.checkArgument;
 import static com.iwdael.videocache.Preconditions.checkNotNull;
 
 import android.content.Context;
@@ -21,16 +22,26 @@ import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.channels.ServerSocketChannel;
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.Locale;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Simple lightweight proxy server with file caching support that handles HTTP requests.
@@ -55,15 +66,31 @@ public class HttpProxyCacheServer {
 
     private static final Logger LOG = LoggerFactory.getLogger("HttpProxyCacheServer");
     private static final String PROXY_HOST = "127.0.0.1";
+    private static final long HEALTH_CHECK_INTERVAL = 30;
+    private static final long HEALTH_RECHECK_INTERVAL = 3;
+    private static final int MAX_FAILED_HEALTH_CHECKS = 3;
+    private static final int PING_READ_TIMEOUT = 500;
+    private static final String GROUP_QUERY = "?group=";
 
-    private final Object clientsLock = new Object();
-    private final ExecutorService socketProcessor = Executors.newFixedThreadPool(8);
+    private final ExecutorService socketProcessor;
     private final Map<String, HttpProxyCacheServerClients> clientsMap = new ConcurrentHashMap<>();
+    private final SourceReaderPool sourceReaderPool;
+    private final Preloader preloader;
+    private final BandwidthManager bandwidth;
+    private final HlsProxy hlsProxy;
     private final ServerSocket serverSocket;
+    private final NioProxyServer nioServer;
     private final int port;
     private final Thread waitConnectionThread;
     private final Config config;
     private final Pinger pinger;
+    private final ScheduledExecutorService healthWatchdog = Executors.newSingleThreadScheduledExecutor();
+    /**
+     * Answers pings of blocking server, so they neither wait for socket processor busy with players nor block accepting.
+     */
+    private final ExecutorService pingProcessor = Executors.newSingleThreadExecutor();
+    private volatile boolean reachable = true; // optimistic until first check made by watchdog
+    private int failedHealthChecks; // used by watchdog thread only
 
     public HttpProxyCacheServer(Context context) {
         this(new Builder(context).buildConfig());
@@ -71,19 +98,39 @@ public class HttpProxyCacheServer {
 
     private HttpProxyCacheServer(Config config) {
         this.config = checkNotNull(config);
+        this.socketProcessor = config.socketExecutor;
+        this.sourceReaderPool = new SourceReaderPool(config.sourceReaderExecutor, config.maxSourceConnections);
+        this.bandwidth = new BandwidthManager(config.maxBandwidth, config.classBandwidth);
+        this.hlsProxy = new HlsProxy(config, new HlsCallback());
+        this.preloader = new Preloader(config.sourceReaderExecutor, new PreloadCallback());
         try {
             InetAddress inetAddress = InetAddress.getByName(config.host);
-            this.serverSocket = new ServerSocket(0, 8, inetAddress);
-            this.port = serverSocket.getLocalPort();
-            IgnoreHostProxySelector.install(config.host, port);
-            CountDownLatch startSignal = new CountDownLatch(1);
-            this.waitConnectionThread = new Thread(new WaitRequestsRunnable(startSignal));
-            this.waitConnectionThread.start();
-            startSignal.await(); // freeze thread, wait for server starts
+            if (config.nioEventLoops > 0) {
+                this.serverSocket = null;
+                this.waitConnectionThread = null;
+                this.nioServer = new NioProxyServer(inetAddress, config.nioEventLoops, new NioRequestListener());
+                this.port = nioServer.getPort();
+                IgnoreHostProxySelector.install(config.host, port);
+                nioServer.start();
+            } else {
+                this.nioServer = null;
+                // socket is opened with channel to allow zero-copy transfer of cached data to accepted sockets
+                this.serverSocket = ServerSocketChannel.open().socket();
+                this.serverSocket.bind(new InetSocketAddress(inetAddress, 0), 8);
+                this.port = serverSocket.getLocalPort();
+                IgnoreHostProxySelector.install(config.host, port);
+                CountDownLatch startSignal = new CountDownLatch(1);
+                this.waitConnectionThread = new Thread(new WaitRequestsRunnable(startSignal));
+                this.waitConnectionThread.start();
+                startSignal.await(); // freeze thread, wait for server starts
+            }
             this.pinger = new Pinger(config.host, port);
-            LOG.info("Proxy cache server started. Is it alive? " + isAlive());
+            LOG.info("Proxy cache server started");
+            healthWatchdog.execute(new HealthCheckRunnable());
         } catch (IOException | InterruptedException e) {
             socketProcessor.shutdown();
+            healthWatchdog.shutdown();
+            pingProcessor.shutdown();
             throw new IllegalStateException("Error starting local proxy server", e);
         }
     }
@@ -128,34 +175,48 @@ public class HttpProxyCacheServer {
         return isAlive() ? appendToProxyUrl(url) : url;
     }
 
+    /**
+     * Fetches beginning of file into cache in background, without player. It allows e.g. feed to prefetch
+     * first seconds of next videos, so they start instantly.
+     * <p>
+     * Preloads are run one by one in order of priority. Players take precedence: running preload is paused
+     * when player request arrives and resumed when players are quiet for a while.
+     * </p>
+     *
+     * @param url        an url to be preloaded.
+     * @param byteBudget count of bytes from file start to be cached, must be positive.
+     * @param priority   preloads with higher priority are run first.
+     * @return a handle allowing to cancel preload.
+     */
+    public PreloadTask preload(String url, long byteBudget, int priority) {
+        checkNotNull(url, "Url can't be null!");
+        checkArgument(byteBudget > 0, "Byte budget must be positive!");
+        PreloadTask task = preloader.submit(url, null, byteBudget, priority);
+        LOG.debug("Preload is queued: " + task);
+        return task;
+    }
+
     public void registerCacheListener(CacheListener cacheListener, String url) {
         checkAllNotNull(cacheListener, url);
-        synchronized (clientsLock) {
-            try {
-                getClients(url).registerCacheListener(cacheListener);
-            } catch (ProxyCacheException e) {
-                LOG.warn("Error registering cache listener", e);
-            }
-        }
+        clientsMap.compute(url, (key, clients) -> {
+            clients = clients != null ? clients : new HttpProxyCacheServerClients(key, null, config, sourceReaderPool, bandwidth);
+            clients.registerCacheListener(cacheListener);
+            return clients;
+        });
     }
 
     public void unregisterCacheListener(CacheListener cacheListener, String url) {
         checkAllNotNull(cacheListener, url);
-        synchronized (clientsLock) {
-            try {
-                getClients(url).unregisterCacheListener(cacheListener);
-            } catch (ProxyCacheException e) {
-                LOG.warn("Error registering cache listener", e);
-            }
-        }
+        clientsMap.computeIfPresent(url, (key, clients) -> {
+            clients.unregisterCacheListener(cacheListener);
+            return clients.isIdle() ? null : clients;
+        });
     }
 
     public void unregisterCacheListener(CacheListener cacheListener) {
         checkNotNull(cacheListener);
-        synchronized (clientsLock) {
-            for (HttpProxyCacheServerClients clients : clientsMap.values()) {
-                clients.unregisterCacheListener(cacheListener);
-            }
+        for (String key : clientsMap.keySet()) {
+            unregisterCacheListener(cacheListener, key);
         }
     }
 
@@ -173,10 +234,18 @@ public class HttpProxyCacheServer {
     public void shutdown() {
         LOG.info("Shutdown proxy server");
 
+        healthWatchdog.shutdownNow();
+        pingProcessor.shutdownNow();
+        reachable = false;
+        preloader.shutdown();
         shutdownClients();
 
         config.storage.release();
 
+        if (nioServer != null) {
+            nioServer.shutdown();
+            return;
+        }
         waitConnectionThread.interrupt();
         try {
             if (!serverSocket.isClosed()) {
@@ -187,14 +256,49 @@ public class HttpProxyCacheServer {
         }
     }
 
+    /**
+     * Returns cached health state, this method never touches network.
+     *
+     * @return {@code true} if server accepts connections and last ping made by watchdog was successful.
+     */
     private boolean isAlive() {
-        return pinger.ping(3, 70);   // 70+140+280=max~500ms
+        return reachable && isAccepting();
+    }
+
+    private boolean isAccepting() {
+        return nioServer != null ? nioServer.isAccepting() : waitConnectionThread.isAlive() && !serverSocket.isClosed();
+    }
+
+    /**
+     * Pings server and updates health state. Server that stops accepting is unreachable at once, but failed ping
+     * makes it unreachable only after several checks in a row: single slow answer mustn't make players
+     * bypass cache until next check.
+     *
+     * @return {@code true} if ping is successful.
+     */
+    private boolean checkHealth() {
+        boolean accepting = isAccepting();
+        boolean pinged = accepting && pinger.ping(3, 70);   // 70+140+280=max~500ms
+        failedHealthChecks = pinged ? 0 : failedHealthChecks + 1;
+        boolean alive = pinged || accepting && failedHealthChecks < MAX_FAILED_HEALTH_CHECKS;
+        if (alive != reachable) {
+            LOG.info("Proxy cache server health is changed. Is it alive? " + alive);
+        }
+        reachable = alive;
+        return pinged;
     }
 
     private String appendToProxyUrl(String url) {
         return String.format(Locale.US, "http://%s:%d/%s", config.host, port, ProxyCacheUtils.encode(url));
     }
 
+    /**
+     * Returns proxy url for file cached in group, group is passed as query of proxy url.
+     */
+    private String appendToProxyUrl(String url, String group) {
+        return appendToProxyUrl(url) + GROUP_QUERY + ProxyCacheUtils.encode(group);
+    }
+
     private File getCacheFile(String url) {
         File cacheDir = config.cacheRoot;
         String fileName = config.fileNameGenerator.generate(url);
@@ -210,11 +314,11 @@ public class HttpProxyCacheServer {
     }
 
     private void shutdownClients() {
-        synchronized (clientsLock) {
-            for (HttpProxyCacheServerClients clients : clientsMap.values()) {
+        for (String url : clientsMap.keySet()) {
+            HttpProxyCacheServerClients clients = clientsMap.remove(url);
+            if (clients != null) {
                 clients.shutdown();
             }
-            clientsMap.clear();
         }
     }
 
@@ -223,55 +327,216 @@ public class HttpProxyCacheServer {
             while (!Thread.currentThread().isInterrupted()) {
                 Socket socket = serverSocket.accept();
                 LOG.debug("Accept new socket " + socket);
-                socketProcessor.submit(new SocketProcessorRunnable(socket));
+                if (pinger.isPingConnection(socket)) {
+                    pingProcessor.submit(new PingProcessorRunnable(socket));
+                } else {
+                    socketProcessor.submit(new SocketProcessorRunnable(socket));
+                }
             }
         } catch (IOException e) {
             onError(new ProxyCacheException("Error during waiting connection", e));
         }
     }
 
-    private void processSocket(Socket socket) {
+    /**
+     * Reads and answers ping connection of blocking server. Request is read only to be consumed, its timeout is short,
+     * so stalled ping doesn't delay next pings for long.
+     */
+    private void processPingSocket(Socket socket) {
         try {
-            GetRequest request = GetRequest.read(socket.getInputStream());
-            LOG.debug("Request to cache proxy:" + request);
-            String url = ProxyCacheUtils.decode(request.uri);
-            if (pinger.isPingRequest(url)) {
+            socket.setSoTimeout(PING_READ_TIMEOUT);
+            if (new HttpRequestParser().read(socket.getInputStream()) != null) {
                 pinger.responseToPing(socket);
-            } else {
-                HttpProxyCacheServerClients clients = getClients(url);
-                clients.processRequest(request, socket);
             }
-        } catch (SocketException e) {
-            // There is no way to determine that client closed connection http://stackoverflow.com/a/10241044/999458
-            // So just to prevent log flooding don't log stacktrace
-            LOG.debug("Closing socket… Socket is closed by client.");
+        } catch (IOException e) {
+            onProcessingError(e);
+        } finally {
+            releaseSocket(socket);
+        }
+    }
+
+    /**
+     * Answers ping request already read by event loop.
+     */
+    private void responseToPing(Socket socket) {
+        try {
+            pinger.responseToPing(socket);
+        } catch (IOException e) {
+            onProcessingError(e);
+        } finally {
+            releaseSocket(socket);
+        }
+    }
+
+    private void processSocket(Socket socket) {
+        try {
+            InputStream in = socket.getInputStream();
+            HttpRequestParser parser = new HttpRequestParser();
+            int requestsCount = 0;
+            GetRequest request;
+            while ((request = parser.read(in)) != null) {
+                requestsCount++;
+                if (!processRequest(request, socket, isKeepAliveAllowed(request, requestsCount))) {
+                    break;
+                }
+                socket.setSoTimeout(config.keepAliveTimeout);
+            }
+        } catch (IllegalArgumentException e) {
+            responseToBadRequest(socket, e);
         } catch (ProxyCacheException | IOException e) {
-            onError(new ProxyCacheException("Error processing request", e));
+            onProcessingError(e);
         } finally {
             releaseSocket(socket);
             LOG.debug("Opened connections: " + getClientsCount());
         }
     }
 
-    private HttpProxyCacheServerClients getClients(String url) throws ProxyCacheException {
-        synchronized (clientsLock) {
-            HttpProxyCacheServerClients clients = clientsMap.get(url);
-            if (clients == null) {
-                clients = new HttpProxyCacheServerClients(url, config);
-                clientsMap.put(url, clients);
+    private void responseToBadRequest(Socket socket, IllegalArgumentException e) {
+        LOG.warn("Bad request: " + e.getMessage());
+        try {
+            socket.getOutputStream().write(HttpRequestParser.BAD_REQUEST_RESPONSE);
+        } catch (IOException writeError) {
+            onProcessingError(writeError);
+        }
+    }
+
+    private void processConnection(NioProxyServer.Connection connection, GetRequest request) {
+        Socket socket = connection.socket();
+        boolean keepAlive = false;
+        try {
+            keepAlive = processRequest(request, socket, isKeepAliveAllowed(request, connection.incrementRequestsCount()));
+        } catch (ProxyCacheException | IOException e) {
+            onProcessingError(e);
+        } finally {
+            if (keepAlive) {
+                nioServer.resume(connection, config.keepAliveTimeout);
+            } else {
+                releaseSocket(socket);
             }
-            return clients;
+            LOG.debug("Opened connections: " + getClientsCount());
         }
     }
 
-    private int getClientsCount() {
-        synchronized (clientsLock) {
-            int count = 0;
-            for (HttpProxyCacheServerClients clients : clientsMap.values()) {
-                count += clients.getClientsCount();
+    /**
+     * Writes response for request.
+     *
+     * @return {@code true} if connection can be reused for next request.
+     */
+    private boolean processRequest(GetRequest request, Socket socket, boolean keepAlive) throws ProxyCacheException, IOException {
+        LOG.debug("Request to cache proxy:" + request);
+        int groupIndex = request.uri.indexOf(GROUP_QUERY); // encoded url never contains '?'
+        String url = ProxyCacheUtils.decode(groupIndex == -1 ? request.uri : request.uri.substring(0, groupIndex));
+        String group = groupIndex == -1 ? null : ProxyCacheUtils.decode(request.uri.substring(groupIndex + GROUP_QUERY.length()));
+        if (pinger.isPingRequest(url)) {
+            pinger.responseToPing(socket);
+            return false;
+        }
+        if (hlsProxy.isPlaylist(url)) {
+            return hlsProxy.responseToPlaylist(request, url, group != null ? group : hlsProxy.newGroup(url), socket, keepAlive);
+        }
+        if (request.head) {
+            return responseToHead(request, url, socket, keepAlive);
+        }
+        preloader.onPlayerRequest();
+        if (group != null) {
+            hlsProxy.onSegmentRequest(url, group, request.rangeOffset);
+        }
+        HttpProxyCacheServerClients clients = acquireClients(url, group);
+        try {
+            return clients.processRequest(request, socket, keepAlive);
+        } finally {
+            releaseClients(url, group, clients);
+        }
+    }
+
+    private void preload(PreloadTask task) throws ProxyCacheException {
+        File cacheFile = task.group == null ? getCacheFile(task.url) : config.generateCacheFile(task.url, task.group);
+        if (cacheFile.exists()) {
+            return;
+        }
+        HttpProxyCacheServerClients clients = acquireClients(task.url, task.group);
+        try {
+            clients.preload(task.byteBudget);
+        } finally {
+            releaseClients(task.url, task.group, clients);
+        }
+    }
+
+    /**
+     * Answers HEAD request with source info kept in storage. Neither cache nor origin connection is opened
+     * if info is known, otherwise only source's metadata is fetched.
+     */
+    private boolean responseToHead(GetRequest request, String url, Socket socket, boolean keepAlive) throws IOException, ProxyCacheException {
+        CacheInfo info = config.storage.getInfo(url);
+        File cacheFile = getCacheFile(url);
+        if (info == null && cacheFile.exists()) {
+            info = new CacheInfo(url, cacheFile.length(), ProxyCacheUtils.getSupposablyMime(url));
+        }
+        if (info == null) {
+            Map<String, String> headers = HttpProxyCacheServerClients.newHttpConnectionHeader(url, request, config);
+            Source source = new SourceWrapper(url, headers, config);
+            try {
+                info = new CacheInfo(url, source.length(), source.getMime());
+            } finally {
+                source.close();
             }
-            return count;
         }
+        keepAlive = keepAlive && info.length >= 0;
+        OutputStream out = socket.getOutputStream();
+        out.write(HttpProxyCache.newResponseHeaders(request, info.length, info.mime, keepAlive).getBytes("UTF-8"));
+        out.flush();
+        return keepAlive;
+    }
+
+    private boolean isKeepAliveAllowed(GetRequest request, int requestsCount) {
+        return request.keepAlive && config.keepAliveTimeout > 0 && requestsCount < config.keepAliveMaxRequests;
+    }
+
+    private void onProcessingError(Exception e) {
+        if (e instanceof SocketTimeoutException) {
+            LOG.debug("Closing socket… Keep-alive timeout is expired.");
+        } else if (e instanceof SocketException) {
+            // There is no way to determine that client closed connection http://stackoverflow.com/a/10241044/999458
+            // So just to prevent log flooding don't log stacktrace
+            LOG.debug("Closing socket… Socket is closed by client.");
+        } else {
+            onError(new ProxyCacheException("Error processing request", e));
+        }
+    }
+
+    /**
+     * Returns clients for url (and group, if url is cached in group) creating them if needed. Lookup, creation and acquiring are done atomically
+     * for particular url only, requests to other urls are never blocked.
+     */
+    private HttpProxyCacheServerClients acquireClients(String url, String group) {
+        return clientsMap.compute(clientsKey(url, group), (key, clients) -> {
+            clients = clients != null ? clients : new HttpProxyCacheServerClients(url, group, config, sourceReaderPool, bandwidth);
+            clients.acquire();
+            return clients;
+        });
+    }
+
+    /**
+     * Releases clients acquired by {@link #acquireClients(String, String)} and drops them from registry if they are idle.
+     */
+    private void releaseClients(String url, String group, HttpProxyCacheServerClients acquired) {
+        acquired.release();
+        clientsMap.computeIfPresent(clientsKey(url, group), (key, clients) -> clients == acquired && clients.isIdle() ? null : clients);
+    }
+
+    /**
+     * Returns key of clients in {@link #clientsMap}: the same segment of different groups is cached in different files.
+     */
+    private static String clientsKey(String url, String group) {
+        return group == null ? url : group + '\n' + url; // new line is never part of url
+    }
+
+    private int getClientsCount() {
+        int count = 0;
+        for (HttpProxyCacheServerClients clients : clientsMap.values()) {
+            count += clients.getClientsCount();
+        }
+        return count;
     }
 
     private void releaseSocket(Socket socket) {
@@ -333,6 +598,53 @@ public class HttpProxyCacheServer {
         }
     }
 
+    private final class HealthCheckRunnable implements Runnable {
+
+        @Override
+        public void run() {
+            boolean pinged = checkHealth();
+            try {
+                // failed check is repeated sooner, so server is marked unreachable or recovers quickly
+                healthWatchdog.schedule(this, pinged ? HEALTH_CHECK_INTERVAL : HEALTH_RECHECK_INTERVAL, TimeUnit.SECONDS);
+            } catch (RejectedExecutionException e) {
+                LOG.debug("Health watchdog is shut down");
+            }
+        }
+    }
+
+    private final class HlsCallback implements HlsProxy.Callback {
+
+        @Override
+        public String proxyUrl(String url, String group) {
+            return appendToProxyUrl(url, group);
+        }
+
+        @Override
+        public PreloadTask preload(String url, String group, long byteBudget) {
+            return preloader.submit(url, group, byteBudget, HlsProxy.READ_AHEAD_PRIORITY);
+        }
+    }
+
+    private final class PreloadCallback implements Preloader.Callback {
+
+        @Override
+        public void preload(PreloadTask task) throws ProxyCacheException {
+            HttpProxyCacheServer.this.preload(task);
+        }
+    }
+
+    private final class NioRequestListener implements NioProxyServer.RequestListener {
+
+        @Override
+        public void onRequest(GetRequest request, NioProxyServer.Connection connection) {
+            if (pinger.isPingRequest(request.uri)) {
+                responseToPing(connection.socket()); // tiny response is written by event loop, ping mustn't wait for busy pool
+                return;
+            }
+            socketProcessor.submit(new ConnectionProcessorRunnable(connection, request));
+        }
+    }
+
     private final class SocketProcessorRunnable implements Runnable {
 
         private final Socket socket;
@@ -347,12 +659,47 @@ public class HttpProxyCacheServer {
         }
     }
 
+    private final class PingProcessorRunnable implements Runnable {
+
+        private final Socket socket;
+
+        public PingProcessorRunnable(Socket socket) {
+            this.socket = socket;
+        }
+
+        @Override
+        public void run() {
+            processPingSocket(socket);
+        }
+    }
+
+    private final class ConnectionProcessorRunnable implements Runnable {
+
+        private final NioProxyServer.Connection connection;
+        private final GetRequest request;
+
+        public ConnectionProcessorRunnable(NioProxyServer.Connection connection, GetRequest request) {
+            this.connection = connection;
+            this.request = request;
+        }
+
+        @Override
+        public void run() {
+            processConnection(connection, request);
+        }
+    }
+
     /**
      * Builder for {@link HttpProxyCacheServer}.
      */
     public static final class Builder {
 
         private static final long DEFAULT_MAX_SIZE = 512 * 1024 * 1024;
+        private static final int DEFAULT_SOCKET_THREADS = 8;
+        private static final int DEFAULT_KEEP_ALIVE_TIMEOUT = 5000;
+        private static final int DEFAULT_KEEP_ALIVE_MAX_REQUESTS = 100;
+        private static final int DEFAULT_MAX_SOURCE_CONNECTIONS = 8;
+        private static final int DEFAULT_HLS_READ_AHEAD_SEGMENTS = 2;
 
         private File cacheRoot;
         private FileNameGenerator fileNameGenerator;
@@ -361,6 +708,22 @@ public class HttpProxyCacheServer {
         private HeaderInjector headerInjector;
         private SourceCreator sourceCreator;
         private String host;
+        private int nioEventLoops;
+        private ExecutorService socketExecutor;
+        private ExecutorService sourceReaderExecutor;
+        private boolean virtualThreads;
+        private int keepAliveTimeout;
+        private int keepAliveMaxRequests;
+        private int sourceConnections;
+        private int maxSourceConnections;
+        private long readAheadBytes;
+        private int readAheadSeconds;
+        private RetryPolicy retryPolicy;
+        private RangeCachePolicy rangeCachePolicy;
+        private long maxBandwidth;
+        private final Map<TrafficClass, Long> classBandwidth = new EnumMap<>(TrafficClass.class);
+        private boolean hls;
+        private int hlsReadAheadSegments;
 
         public Builder(Context context) {
             this.storage = SourceInfoStorageFactory.newSourceInfoStorage(context);
@@ -370,6 +733,14 @@ public class HttpProxyCacheServer {
             this.headerInjector = new EmptyHeadersInjector();
             this.sourceCreator = new DefaultSourceCreator();
             this.host = PROXY_HOST;
+            this.keepAliveTimeout = -1; // default depends on server mode, see buildConfig()
+            this.keepAliveMaxRequests = DEFAULT_KEEP_ALIVE_MAX_REQUESTS;
+            this.sourceConnections = 1;
+            this.maxSourceConnections = DEFAULT_MAX_SOURCE_CONNECTIONS;
+            this.retryPolicy = RetryPolicy.DEFAULT;
+            this.rangeCachePolicy = new DistanceRangeCachePolicy(Long.MAX_VALUE);
+            this.hls = false;
+            this.hlsReadAheadSegments = DEFAULT_HLS_READ_AHEAD_SEGMENTS;
         }
 
         /**
@@ -461,6 +832,250 @@ public class HttpProxyCacheServer {
             return this;
         }
 
+        /**
+         * Switches server to non-blocking mode built on {@link java.nio.channels.Selector}.
+         * <p>
+         * Passed count of event loop threads multiplex all player connections while they are idle or sending requests,
+         * only blocking cache and origin work is handed off to socket processor.
+         * By default ({@code 0}) classic blocking accept loop is used.
+         * </p>
+         *
+         * @param count count of event loop threads, {@code 0} to use blocking server.
+         * @return a builder.
+         */
+        public Builder nioEventLoops(int count) {
+            checkArgument(count >= 0, "Event loops count can't be negative!");
+            this.nioEventLoops = count;
+            return this;
+        }
+
+        /**
+         * Configures persistent (keep-alive) player connections.
+         * <p>
+         * Connection that asks for keep-alive serves several sequential requests
+         * until it is idle longer than {@code idleTimeout} or serves {@code maxRequests} requests.
+         * By default connection is kept alive for 5 seconds and 100 requests in non-blocking mode (see {@link #nioEventLoops(int)}).
+         * Blocking server doesn't keep connections alive by default: idle connection holds socket thread
+         * while it waits for next request, so few idle players would make new requests wait for free thread.
+         * </p>
+         *
+         * @param idleTimeout max idle time in milliseconds between requests, {@code 0} disables keep-alive.
+         * @param maxRequests max count of requests served by single connection.
+         * @return a builder.
+         */
+        public Builder keepAlive(int idleTimeout, int maxRequests) {
+            checkArgument(idleTimeout >= 0, "Keep-alive timeout can't be negative!");
+            checkArgument(maxRequests > 0, "Max requests count must be positive!");
+            this.keepAliveTimeout = idleTimeout;
+            this.keepAliveMaxRequests = maxRequests;
+            return this;
+        }
+
+        /**
+         * Sets max count of concurrent origin connections used for fetching single url.
+         * <p>
+         * Missing part of file is split into segments downloaded in parallel, every connection
+         * writes its own part of cache file. It helps to saturate link to high-latency servers.
+         * By default single connection is used.
+         * </p>
+         *
+         * @param count max count of connections per url, must be positive.
+         * @return a builder.
+         */
+        public Builder sourceConnections(int count) {
+            checkArgument(count > 0, "Source connections count must be positive!");
+            this.sourceConnections = count;
+            return this;
+        }
+
+        /**
+         * Sets max count of concurrent origin connections used for fetching all urls.
+         * <p>
+         * Source readers that don't fit the limit wait in queue shared by all urls. Queue is served in turn by url,
+         * and reader that has been fetching for a while gives up its connection when readers of other urls are waiting,
+         * so single long video can't block others. By default 8 connections are used.
+         * </p>
+         *
+         * @param count max count of connections for whole proxy, must be positive.
+         * @return a builder.
+         */
+        public Builder maxSourceConnections(int count) {
+            checkArgument(count > 0, "Max source connections count must be positive!");
+            this.maxSourceConnections = count;
+            return this;
+        }
+
+        /**
+         * Limits how many bytes are fetched from origin ahead of the furthest player position.
+         * <p>
+         * Reading from origin is paused when window is full and resumed as player advances,
+         * so bandwidth and disk aren't wasted for video that is watched for few seconds.
+         * By default ({@code 0}) whole file is fetched as fast as possible.
+         * </p>
+         *
+         * @param bytes max count of bytes ahead of player, {@code 0} to disable limit.
+         * @return a builder.
+         */
+        public Builder readAhead(long bytes) {
+            checkArgument(bytes >= 0, "Read-ahead size can't be negative!");
+            this.readAheadBytes = bytes;
+            return this;
+        }
+
+        /**
+         * Limits fetching from origin to count of seconds ahead of the furthest player position.
+         * <p>
+         * Bitrate is estimated from player's progress, until it is known limit set by {@link #readAhead(long)} is used.
+         * By default ({@code 0}) read-ahead isn't limited by time.
+         * </p>
+         *
+         * @param seconds max count of seconds ahead of player, {@code 0} to disable limit.
+         * @return a builder.
+         */
+        public Builder readAheadSeconds(int seconds) {
+            checkArgument(seconds >= 0, "Read-ahead duration can't be negative!");
+            this.readAheadSeconds = seconds;
+            return this;
+        }
+
+        /**
+         * Sets rules for retrying failed reading from origin.
+         * <p>
+         * Dropped connection is reopened at the last cached byte after backoff, player keeps receiving the same stream.
+         * By default {@link RetryPolicy#DEFAULT} is used, {@link RetryPolicy#NONE} reports first failure to player.
+         * </p>
+         *
+         * @param retryPolicy a retry policy, can't be {@code null}.
+         * @return a builder.
+         */
+        public Builder retryPolicy(RetryPolicy retryPolicy) {
+            this.retryPolicy = checkNotNull(retryPolicy);
+            return this;
+        }
+
+        /**
+         * Sets policy deciding if partial requests (made by player after seek) are cached.
+         * <p>
+         * Cached request is fetched into sparse cache file, so seeking to the same position again doesn't hit network.
+         * Request rejected by policy is proxied directly from origin and isn't cached.
+         * By default all partial requests are cached.
+         * </p>
+         *
+         * @param policy a policy for partial requests, can't be {@code null}.
+         * @return a builder.
+         * @see DistanceRangeCachePolicy
+         */
+        public Builder rangeCachePolicy(RangeCachePolicy policy) {
+            this.rangeCachePolicy = checkNotNull(policy);
+            return this;
+        }
+
+        /**
+         * Limits total speed of reading data from origin servers.
+         * <p>
+         * When limit is reached, data requested by players ({@link TrafficClass#PLAYING}, {@link TrafficClass#SEEKING})
+         * is fetched first, preloads and background caching get only the rest. By default speed is not limited.
+         * </p>
+         *
+         * @param bytesPerSecond max count of bytes per second, {@code 0} to remove limit.
+         * @return a builder.
+         */
+        public Builder maxBandwidth(long bytesPerSecond) {
+            checkArgument(bytesPerSecond >= 0, "Bandwidth can't be negative!");
+            this.maxBandwidth = bytesPerSecond;
+            return this;
+        }
+
+        /**
+         * Limits speed of reading data of particular class from origin servers, e.g. to keep preloads
+         * from saturating network. By default speed of any class is not limited.
+         *
+         * @param trafficClass   a class of traffic to be limited.
+         * @param bytesPerSecond max count of bytes per second, {@code 0} to remove limit.
+         * @return a builder.
+         */
+        public Builder maxBandwidth(TrafficClass trafficClass, long bytesPerSecond) {
+            checkNotNull(trafficClass);
+            checkArgument(bytesPerSecond >= 0, "Bandwidth can't be negative!");
+            this.classBandwidth.put(trafficClass, bytesPerSecond);
+            return this;
+        }
+
+        /**
+         * Enables or disables HLS support.
+         * <p>
+         * When enabled, playlists ({@code .m3u8} urls) are sent to player with segments, keys and variant playlists
+         * pointing to proxy, every segment is cached as separate file. Files of the same playlist are evicted together.
+         * When disabled, playlist is cached as regular file and segments are loaded by player directly from origin.
+         * Disabled by default.
+         * </p>
+         *
+         * @param enabled {@code true} to proxy HLS streams segment by segment.
+         * @return a builder.
+         */
+        public Builder hls(boolean enabled) {
+            this.hls = enabled;
+            return this;
+        }
+
+        /**
+         * Sets count of HLS segments fetched in background ahead of segment requested by player.
+         * By default 2 segments are fetched ahead.
+         *
+         * @param count count of segments, {@code 0} to disable read-ahead.
+         * @return a builder.
+         */
+        public Builder hlsReadAheadSegments(int count) {
+            checkArgument(count >= 0, "Segments count can't be negative!");
+            this.hlsReadAheadSegments = count;
+            return this;
+        }
+
+        /**
+         * Sets executor used for processing client (player) sockets.
+         * <p>
+         * By default blocking server uses fixed pool of 8 platform threads. Non-blocking server (see {@link #nioEventLoops(int)})
+         * uses cached pool: its threads do only blocking cache and origin work of requests, so player whose origin stalls
+         * must not make requests of other players wait for free thread.
+         * </p>
+         *
+         * @param executor an executor for client sockets, can't be {@code null}.
+         * @return a builder.
+         */
+        public Builder socketExecutor(ExecutorService executor) {
+            this.socketExecutor = checkNotNull(executor);
+            return this;
+        }
+
+        /**
+         * Sets executor used for reading data from origin server.
+         * <p>
+         * By default cached pool of platform threads is used.
+         * </p>
+         *
+         * @param executor an executor for origin readers, can't be {@code null}.
+         * @return a builder.
+         */
+        public Builder sourceReaderExecutor(ExecutorService executor) {
+            this.sourceReaderExecutor = checkNotNull(executor);
+            return this;
+        }
+
+        /**
+         * Runs client sockets and origin readers on virtual threads (thread per task) if JVM supports them.
+         * <p>
+         * Blocked stream costs only few kilobytes instead of platform thread stack.
+         * On runtimes without virtual threads (e.g. Android) default executors are used.
+         * Executors set by {@link #socketExecutor(ExecutorService)} and {@link #sourceReaderExecutor(ExecutorService)} take precedence.
+         * </p>
+         *
+         * @return a builder.
+         */
+        public Builder useVirtualThreads() {
+            this.virtualThreads = true;
+            return this;
+        }
+
         /**
          * Builds new instance of {@link HttpProxyCacheServer}.
          *
@@ -472,7 +1087,21 @@ public class HttpProxyCacheServer {
         }
 
         private Config buildConfig() {
-            return new Config(cacheRoot, fileNameGenerator, diskUsage, storage, headerInjector, sourceCreator, host);
+            ExecutorService virtualExecutor = virtualThreads ? ProxyCacheUtils.newVirtualThreadPerTaskExecutor() : null;
+            if (virtualThreads && virtualExecutor == null) {
+                LOG.warn("Virtual threads are not supported by runtime, platform threads will be used");
+            }
+            ExecutorService socketExecutor = this.socketExecutor != null ? this.socketExecutor
+                    : virtualExecutor != null ? virtualExecutor
+                    : nioEventLoops > 0 ? Executors.newCachedThreadPool() : Executors.newFixedThreadPool(DEFAULT_SOCKET_THREADS);
+            ExecutorService sourceReaderExecutor = this.sourceReaderExecutor != null ? this.sourceReaderExecutor
+                    : virtualExecutor != null ? virtualExecutor : Executors.newCachedThreadPool();
+            int keepAliveTimeout = this.keepAliveTimeout >= 0 ? this.keepAliveTimeout
+                    : nioEventLoops > 0 ? DEFAULT_KEEP_ALIVE_TIMEOUT : 0;
+            return new Config(cacheRoot, fileNameGenerator, diskUsage, storage, headerInjector, sourceCreator, host, nioEventLoops,
+                    socketExecutor, sourceReaderExecutor, keepAliveTimeout, keepAliveMaxRequests, sourceConnections, maxSourceConnections,
+                    readAheadBytes, readAheadSeconds, retryPolicy, rangeCachePolicy,
+                    maxBandwidth, Collections.unmodifiableMap(new EnumMap<>(classBandwidth)), hls, hlsReadAheadSegments);
         }
 
     }
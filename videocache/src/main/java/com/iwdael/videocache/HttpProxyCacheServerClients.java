@@ -25,30 +25,60 @@ import static com.iwdael.videocache.Preconditions.checkNotNull;
 final class HttpProxyCacheServerClients {
 
     private final AtomicInteger clientsCount = new AtomicInteger(0);
+    private final AtomicInteger references = new AtomicInteger(0);
     private final String url;
+    private final String group;
     private volatile HttpProxyCache proxyCache;
     private final List<CacheListener> listeners = new CopyOnWriteArrayList<>();
     private final CacheListener uiCacheListener;
     private final Config config;
-
-    public HttpProxyCacheServerClients(String url, Config config) {
+    private final SourceReaderPool sourceReaderPool;
+    private final BandwidthManager bandwidth;
+
+    /**
+     * @param group name of group cache file belongs to (e.g. playlist of HLS segment) or {@code null}.
+     */
+    public HttpProxyCacheServerClients(String url, String group, Config config, SourceReaderPool sourceReaderPool,
+                                       BandwidthManager bandwidth) {
         this.url = checkNotNull(url);
+        this.group = group;
         this.config = checkNotNull(config);
+        this.sourceReaderPool = checkNotNull(sourceReaderPool);
+        this.bandwidth = checkNotNull(bandwidth);
         this.uiCacheListener = new UiListenerHandler(url, listeners);
     }
 
-    public void processRequest(GetRequest request, Socket socket) throws ProxyCacheException, IOException {
+    public boolean processRequest(GetRequest request, Socket socket, boolean keepAlive) throws ProxyCacheException, IOException {
         startProcessRequest(request);
         try {
             clientsCount.incrementAndGet();
-            proxyCache.processRequest(request, socket);
+            return proxyCache.processRequest(request, socket, keepAlive);
+        } finally {
+            finishProcessRequest();
+        }
+    }
+
+    /**
+     * Fetches first bytes of url into cache. Preload is counted as client, so cache is kept opened until it is done.
+     *
+     * @param byteBudget count of bytes from file start to be cached.
+     */
+    public void preload(long byteBudget) throws ProxyCacheException {
+        startPreload();
+        try {
+            clientsCount.incrementAndGet();
+            proxyCache.preload(byteBudget);
         } finally {
             finishProcessRequest();
         }
     }
 
     private synchronized void startProcessRequest(GetRequest request) throws ProxyCacheException {
-        proxyCache = proxyCache == null ? newHttpProxyCache(request) : proxyCache;
+        proxyCache = proxyCache == null ? newHttpProxyCache(newHttpConnectionHeader(url, request, config)) : proxyCache;
+    }
+
+    private synchronized void startPreload() throws ProxyCacheException {
+        proxyCache = proxyCache == null ? newHttpProxyCache(new HashMap<>(config.headerInjector.addHeaders(url))) : proxyCache;
     }
 
     private synchronized void finishProcessRequest() {
@@ -58,6 +88,25 @@ final class HttpProxyCacheServerClients {
         }
     }
 
+    /**
+     * Marks this instance as used by request being dispatched. Registry calls it atomically with lookup,
+     * so instance can't be removed as idle between lookup and request processing.
+     */
+    void acquire() {
+        references.incrementAndGet();
+    }
+
+    void release() {
+        references.decrementAndGet();
+    }
+
+    /**
+     * Returns {@code true} if instance has neither requests in progress nor listeners and can be dropped from registry.
+     */
+    boolean isIdle() {
+        return references.get() <= 0 && listeners.isEmpty();
+    }
+
     public void registerCacheListener(CacheListener cacheListener) {
         listeners.add(cacheListener);
     }
@@ -80,18 +129,17 @@ final class HttpProxyCacheServerClients {
         return clientsCount.get();
     }
 
-    private HttpProxyCache newHttpProxyCache(GetRequest request) throws ProxyCacheException {
-        Map<String, String> headers = newHttpConnectionHeader(request);
+    private HttpProxyCache newHttpProxyCache(Map<String, String> headers) throws ProxyCacheException {
         Source source = new SourceWrapper(url, headers, config);
-        FileCache cache = new FileCache(config.generateCacheFile(url), config, config.fileNameGenerator.generate(url));
-        HttpProxyCache httpProxyCache = new HttpProxyCache(source, cache, config);
+        FileCache cache = new FileCache(config.generateCacheFile(url, group), config, config.fileNameGenerator.generate(url));
+        HttpProxyCache httpProxyCache = new HttpProxyCache(source, cache, config, sourceReaderPool, bandwidth);
         httpProxyCache.registerCacheListener(uiCacheListener);
         return httpProxyCache;
     }
 
-    private Map<String, String> newHttpConnectionHeader(GetRequest request) {
+    static Map<String, String> newHttpConnectionHeader(String url, GetRequest request, Config config) {
         Map<String, String> headers = new HashMap<>(config.headerInjector.addHeaders(url));
-        for (Map.Entry<String, String> entry : request.headers.entrySet()) {
+        for (Map.Entry<String, String> entry : request.headers().entrySet()) {
             if (config.headerInjector.filter(url, entry.getKey()))
                 headers.put(entry.getKey(), entry.getValue());
         }
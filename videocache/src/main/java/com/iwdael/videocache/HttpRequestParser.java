@@ -0,0 +1,255 @@
+package com.iwdael.videocache;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Streaming parser of player's http requests working directly on bytes.
+ * <p>
+ * Method, uri, range and connection options are extracted without intermediate strings,
+ * other headers are kept as raw bytes and decoded only if they are really needed (see {@link GetRequest#headers()}).
+ * Single instance should be used for all requests of one connection: it reuses its buffer
+ * and keeps bytes of next request that could be received together with previous one.
+ */
+final class HttpRequestParser {
+
+    static final int MAX_REQUEST_SIZE = 16 * 1024;
+    static final Charset ASCII = Charset.forName("US-ASCII");
+    /**
+     * Response to request parser can't understand, connection is closed after it.
+     */
+    static final byte[] BAD_REQUEST_RESPONSE = "HTTP/1.1 400 Bad Request\r\nContent-Length: 0\r\nConnection: close\r\n\r\n".getBytes(ASCII);
+
+    private static final byte[] GET = {'G', 'E', 'T', ' ', '/'};
+    private static final byte[] HEAD = {'H', 'E', 'A', 'D', ' ', '/'};
+    private static final byte[] HTTP_1_0 = {'H', 'T', 'T', 'P', '/', '1', '.', '0'};
+    private static final byte[] RANGE = {'r', 'a', 'n', 'g', 'e'};
+    private static final byte[] CONNECTION = {'c', 'o', 'n', 'n', 'e', 'c', 't', 'i', 'o', 'n'};
+    private static final byte[] BYTES = {'b', 'y', 't', 'e', 's', '='};
+    private static final byte[] CLOSE = {'c', 'l', 'o', 's', 'e'};
+    private static final byte[] KEEP_ALIVE = {'k', 'e', 'e', 'p', '-', 'a', 'l', 'i', 'v', 'e'};
+
+    private final byte[] buffer = new byte[MAX_REQUEST_SIZE];
+    private int position;
+    private int limit;
+
+    /**
+     * Reads next request from stream.
+     *
+     * @return request or {@code null} if stream is closed before any request data.
+     */
+    GetRequest read(InputStream in) throws IOException {
+        if (position == limit) {
+            position = limit = 0;
+        }
+        int scanned = position;
+        while (true) {
+            int end = indexOfHeadersEnd(buffer, scanned, limit);
+            if (end != -1) {
+                GetRequest request = parse(buffer, position, end - position);
+                position = end;
+                return request;
+            }
+            scanned = Math.max(position, limit - 3); // terminator may be split between reads
+            if (limit == buffer.length) {
+                if (position == 0) {
+                    throw new IOException("Request headers exceed " + MAX_REQUEST_SIZE + " bytes");
+                }
+                System.arraycopy(buffer, position, buffer, 0, limit - position);
+                scanned -= position;
+                limit -= position;
+                position = 0;
+            }
+            int read = in.read(buffer, limit, buffer.length - limit);
+            if (read == -1) {
+                if (position == limit) {
+                    return null; // connection is closed by client
+                }
+                throw new IOException("Connection is closed in the middle of request");
+            }
+            limit += read;
+        }
+    }
+
+    /**
+     * Returns position after empty line ending request headers or {@code -1} if headers aren't completely received.
+     */
+    static int indexOfHeadersEnd(byte[] data, int from, int to) {
+        for (int i = Math.max(from, 1); i < to; i++) {
+            if (data[i] == '\n' && (data[i - 1] == '\n' || i > 1 && data[i - 1] == '\r' && data[i - 2] == '\n')) {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Parses complete request headers.
+     *
+     * @throws IllegalArgumentException if request is not valid GET or HEAD request.
+     */
+    static GetRequest parse(byte[] data, int offset, int length) {
+        int end = offset + length;
+        boolean head = startsWith(data, offset, end, HEAD);
+        if (!head && !startsWith(data, offset, end, GET)) {
+            throw new IllegalArgumentException("Invalid request `" + new String(data, offset, length, ASCII) + "`: url not found!");
+        }
+        int uriStart = offset + (head ? HEAD.length : GET.length);
+        int lineEnd = indexOf(data, uriStart, end, (byte) '\n');
+        int uriEnd = lastIndexOf(data, uriStart, lineEnd, (byte) ' ');
+        if (uriEnd == -1) {
+            throw new IllegalArgumentException("Invalid request `" + new String(data, offset, length, ASCII) + "`: url not found!");
+        }
+        String uri = new String(data, uriStart, uriEnd - uriStart, ASCII);
+        boolean http10 = startsWith(data, uriEnd + 1, lineEnd, HTTP_1_0);
+
+        long rangeOffset = -1;
+        long rangeEnd = -1;
+        int connection = 0; // 1 - close, 2 - keep-alive
+        int headersStart = lineEnd + 1;
+        for (int lineStart = headersStart; lineStart < end; ) {
+            int next = indexOf(data, lineStart, end, (byte) '\n');
+            int colon = indexOf(data, lineStart, next, (byte) ':');
+            if (colon < next) {
+                int nameEnd = trimEnd(data, lineStart, colon);
+                int valueStart = trimStart(data, colon + 1, next);
+                int valueEnd = trimEnd(data, valueStart, next);
+                if (equalsIgnoreCase(data, lineStart, nameEnd, RANGE) && startsWith(data, valueStart, valueEnd, BYTES)) {
+                    int numberStart = valueStart + BYTES.length;
+                    int rangeValueEnd = indexOf(data, numberStart, valueEnd, (byte) ','); // only the first of several ranges is served
+                    int dash = indexOf(data, numberStart, rangeValueEnd, (byte) '-');
+                    // suffix range ("bytes=-500") and malformed range are ignored, whole file is sent then
+                    rangeOffset = dash < rangeValueEnd ? parseLong(data, numberStart, dash) : -1;
+                    rangeEnd = rangeOffset >= 0 && dash + 1 < rangeValueEnd ? parseLong(data, dash + 1, rangeValueEnd) : -1;
+                    rangeEnd = rangeEnd >= rangeOffset ? rangeEnd : -1;
+                } else if (equalsIgnoreCase(data, lineStart, nameEnd, CONNECTION)) {
+                    connection = contains(data, valueStart, valueEnd, CLOSE) ? 1
+                            : contains(data, valueStart, valueEnd, KEEP_ALIVE) ? 2 : 0;
+                }
+            }
+            lineStart = next + 1;
+        }
+        boolean keepAlive = connection == 0 ? !http10 : connection == 2; // HTTP/1.1 connections are persistent by default
+        byte[] rawHeaders = Arrays.copyOfRange(data, Math.min(headersStart, end), end);
+        return new GetRequest(head, uri, rangeOffset, rangeEnd, keepAlive, rawHeaders);
+    }
+
+    /**
+     * Decodes all headers of request.
+     *
+     * @param data raw headers following request line.
+     * @return map of header names to values.
+     */
+    static Map<String, String> parseHeaders(byte[] data) {
+        Map<String, String> headers = new HashMap<>();
+        for (int lineStart = 0; lineStart < data.length; ) {
+            int next = indexOf(data, lineStart, data.length, (byte) '\n');
+            int colon = indexOf(data, lineStart, next, (byte) ':');
+            if (colon < next) {
+                int nameStart = trimStart(data, lineStart, colon);
+                int nameEnd = trimEnd(data, nameStart, colon);
+                int valueStart = trimStart(data, colon + 1, next);
+                int valueEnd = trimEnd(data, valueStart, next);
+                headers.put(new String(data, nameStart, nameEnd - nameStart, ASCII), new String(data, valueStart, valueEnd - valueStart, ASCII));
+            }
+            lineStart = next + 1;
+        }
+        return headers;
+    }
+
+    private static boolean startsWith(byte[] data, int from, int to, byte[] prefix) {
+        if (to - from < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (data[from + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean equalsIgnoreCase(byte[] data, int from, int to, byte[] lowerCase) {
+        return to - from == lowerCase.length && regionMatchesIgnoreCase(data, from, lowerCase);
+    }
+
+    private static boolean contains(byte[] data, int from, int to, byte[] lowerCase) {
+        for (int i = from; i <= to - lowerCase.length; i++) {
+            if (regionMatchesIgnoreCase(data, i, lowerCase)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean regionMatchesIgnoreCase(byte[] data, int from, byte[] lowerCase) {
+        for (int i = 0; i < lowerCase.length; i++) {
+            byte b = data[from + i];
+            if ((b >= 'A' && b <= 'Z' ? b + ('a' - 'A') : b) != lowerCase[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parses non-negative decimal number.
+     *
+     * @return number or {@code -1} if value is empty, contains not a digit or is too large.
+     */
+    private static long parseLong(byte[] data, int from, int to) {
+        from = trimStart(data, from, to);
+        to = trimEnd(data, from, to);
+        if (from == to) {
+            return -1;
+        }
+        long value = 0;
+        for (int i = from; i < to; i++) {
+            byte b = data[i];
+            if (b < '0' || b > '9' || value > (Long.MAX_VALUE - 9) / 10) {
+                return -1;
+            }
+            value = value * 10 + (b - '0');
+        }
+        return value;
+    }
+
+    /**
+     * Returns index of first byte equal to value or {@code to} if there is no such byte.
+     */
+    private static int indexOf(byte[] data, int from, int to, byte value) {
+        for (int i = from; i < to; i++) {
+            if (data[i] == value) {
+                return i;
+            }
+        }
+        return to;
+    }
+
+    private static int lastIndexOf(byte[] data, int from, int to, byte value) {
+        for (int i = to - 1; i >= from; i--) {
+            if (data[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int trimStart(byte[] data, int from, int to) {
+        while (from < to && (data[from] == ' ' || data[from] == '\t')) {
+            from++;
+        }
+        return from;
+    }
+
+    private static int trimEnd(byte[] data, int from, int to) {
+        while (to > from && (data[to - 1] == ' ' || data[to - 1] == '\t' || data[to - 1] == '\r')) {
+            to--;
+        }
+        return to;
+    }
+}
@@ -10,12 +10,14 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InterruptedIOException;
 import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
 import java.net.URL;
 import java.util.HashMap;
 import java.util.Map;
 
 import static com.iwdael.videocache.Preconditions.checkNotNull;
 import static com.iwdael.videocache.ProxyCacheUtils.DEFAULT_BUFFER_SIZE;
+import static java.net.HttpURLConnection.HTTP_BAD_REQUEST;
 import static java.net.HttpURLConnection.HTTP_MOVED_PERM;
 import static java.net.HttpURLConnection.HTTP_MOVED_TEMP;
 import static java.net.HttpURLConnection.HTTP_OK;
@@ -27,14 +29,16 @@ import static java.net.HttpURLConnection.HTTP_SEE_OTHER;
  *
  * @author Alexey Danilov (danikula@gmail.com).
  */
-public class HttpUrlSource implements Source {
+public class HttpUrlSource implements InfoSource {
 
     private static final Logger LOG = LoggerFactory.getLogger("HttpUrlSource");
 
     private static final int MAX_REDIRECTS = 5;
+    private static final int READ_TIMEOUT = 15000;
 
     private final Map<String, String> headers;
     private CacheInfo cacheInfo;
+    private volatile boolean responded;
     private HttpURLConnection connection;
     private InputStream inputStream;
 
@@ -62,12 +66,20 @@ public class HttpUrlSource implements Source {
 
     @Override
     public void open(long offset) throws ProxyCacheException {
+        open(offset, null);
+    }
+
+    @Override
+    public void open(long offset, String ifRange) throws ProxyCacheException {
         try {
-            connection = openConnection(offset, -1);
+            // connection silently dropped by mobile network must fail, so reader is able to retry
+            connection = openConnection(offset, ifRange, READ_TIMEOUT);
             String mime = connection.getContentType();
             inputStream = new BufferedInputStream(connection.getInputStream(), DEFAULT_BUFFER_SIZE);
             long length = readSourceAvailableBytes(connection, offset, connection.getResponseCode());
-            this.cacheInfo = new CacheInfo(cacheInfo.url, length, mime);
+            this.cacheInfo = new CacheInfo(cacheInfo.url, length, mime,
+                    connection.getHeaderField("ETag"), connection.getHeaderField("Last-Modified"));
+            this.responded = true;
         } catch (IOException e) {
             throw new ProxyCacheException("Error opening connection for " + cacheInfo.url + " with offset " + offset, e);
         }
@@ -76,7 +88,8 @@ public class HttpUrlSource implements Source {
     private long readSourceAvailableBytes(HttpURLConnection connection, long offset, int responseCode) throws IOException {
         long contentLength = getContentLength(connection);
         return responseCode == HTTP_OK ? contentLength
-                : responseCode == HTTP_PARTIAL ? contentLength + offset : cacheInfo.length;
+                : responseCode == HTTP_PARTIAL ? OriginRequest.partialResponseLength(connection.getHeaderField("Content-Range"), contentLength, offset)
+                : cacheInfo.length;
     }
 
     private long getContentLength(HttpURLConnection connection) {
@@ -110,6 +123,8 @@ public class HttpUrlSource implements Source {
         }
         try {
             return inputStream.read(buffer, 0, buffer.length);
+        } catch (SocketTimeoutException e) {
+            throw new ProxyCacheException("Timeout reading data from " + cacheInfo.url, e);
         } catch (InterruptedIOException e) {
             throw new InterruptedProxyCacheException("Reading source " + cacheInfo.url + " is interrupted", e);
         } catch (IOException e) {
@@ -122,11 +137,13 @@ public class HttpUrlSource implements Source {
         HttpURLConnection urlConnection = null;
         InputStream inputStream = null;
         try {
-            urlConnection = openConnection(0, 10000);
+            urlConnection = openConnection(0, null, 10000);
             long length = getContentLength(urlConnection);
             String mime = urlConnection.getContentType();
             inputStream = urlConnection.getInputStream();
-            this.cacheInfo = new CacheInfo(cacheInfo.url, length, mime);
+            this.cacheInfo = new CacheInfo(cacheInfo.url, length, mime,
+                    urlConnection.getHeaderField("ETag"), urlConnection.getHeaderField("Last-Modified"));
+            this.responded = true;
             LOG.debug("Source info fetched: " + cacheInfo);
         } catch (IOException e) {
             LOG.error("Error fetching info from " + cacheInfo.url, e);
@@ -138,17 +155,43 @@ public class HttpUrlSource implements Source {
         }
     }
 
-    private HttpURLConnection openConnection(long offset, int timeout) throws IOException, ProxyCacheException {
+    /**
+     * Opens connection to resolved location of url if it is known, otherwise follows redirects and remembers final location.
+     */
+    private HttpURLConnection openConnection(long offset, String ifRange, int timeout) throws IOException, ProxyCacheException {
+        String url = cacheInfo.url;
+        String location = RedirectCache.SHARED.get(url);
+        if (location != null) {
+            HttpURLConnection connection = openConnection(location, offset, ifRange, timeout);
+            int code = connection.getResponseCode();
+            if (code < HTTP_BAD_REQUEST) {
+                return connection;
+            }
+            LOG.debug("Resolved location " + location + " responds " + code + ", follow redirects of " + url + " again");
+            RedirectCache.SHARED.invalidate(url);
+            connection.disconnect();
+        }
+        HttpURLConnection connection = openConnection(url, offset, ifRange, timeout);
+        int code = connection.getResponseCode();
+        if (code < HTTP_BAD_REQUEST) {
+            RedirectCache.SHARED.put(url, connection.getURL().toString());
+        }
+        return connection;
+    }
+
+    private HttpURLConnection openConnection(String url, long offset, String ifRange, int timeout) throws IOException, ProxyCacheException {
         HttpURLConnection connection;
         boolean redirected;
         int redirectCount = 0;
-        String url = this.cacheInfo.url;
         do {
             LOG.debug("Open connection " + (offset > 0 ? " with offset " + offset : "") + " to " + url);
             connection = (HttpURLConnection) new URL(url).openConnection();
             injectCustomHeaders(connection);
             if (offset > 0) {
                 connection.setRequestProperty("Range", "bytes=" + offset + "-");
+                if (ifRange != null) {
+                    connection.setRequestProperty("If-Range", ifRange);
+                }
             }
             if (timeout > 0) {
                 connection.setConnectTimeout(timeout);
@@ -176,12 +219,17 @@ public class HttpUrlSource implements Source {
     }
 
     public synchronized String getMime() throws ProxyCacheException {
-        if (TextUtils.isEmpty(cacheInfo.mime)) {
+        if (TextUtils.isEmpty(cacheInfo.mime) && !responded) {
             fetchContentInfo();
         }
         return cacheInfo.mime;
     }
 
+    @Override
+    public CacheInfo getInfo() {
+        return responded ? cacheInfo : null;
+    }
+
     @Override
     public String getUrl() {
         return cacheInfo.url;
@@ -0,0 +1,22 @@
+package com.iwdael.videocache;
+
+/**
+ * {@link Source} reporting info taken from its last response, so info is known after the first {@link #open(long)}
+ * without separate request to origin.
+ */
+public interface InfoSource extends Source {
+
+    /**
+     * Returns info of the last response (including validators) or {@code null} if source wasn't opened yet.
+     */
+    CacheInfo getInfo();
+
+    /**
+     * Opens source at offset like {@link #open(long)}, but asks origin for range only if resource matches validator.
+     * Changed resource is sent whole then, its new validators are reported by {@link #getInfo()}.
+     *
+     * @param ifRange value of {@code If-Range} header ({@code ETag} or {@code Last-Modified} of cached data) or
+     *                {@code null} if range is requested unconditionally.
+     */
+    void open(long offset, String ifRange) throws ProxyCacheException;
+}
@@ -0,0 +1,83 @@
+package com.iwdael.videocache;
+
+/**
+ * Finds position of {@code moov} box of MP4 file by top-level box headers already written to {@link Cache}.
+ * <p>
+ * Player can't start playback of MP4 without {@code moov}. If file isn't "fast start" one, {@code moov} follows
+ * {@code mdat} at the end of file and player seeks there right after reading head of file.
+ */
+final class Mp4Layout {
+
+    /**
+     * Returned if there is no need to fetch tail: file isn't MP4, its {@code moov} is at the head or layout is broken.
+     */
+    static final long NO_TAIL = -1;
+
+    /**
+     * Returned if top-level boxes at the head aren't cached yet.
+     */
+    static final long UNKNOWN = -2;
+
+    private static final int HEADER_SIZE = 8;
+    private static final int LARGE_HEADER_SIZE = 16;
+
+    private Mp4Layout() {
+    }
+
+    /**
+     * Returns position of the first top-level box following {@code mdat}, when its header isn't cached yet.
+     * It is where {@code moov} of file without "fast start" is expected.
+     *
+     * @param length length of file, must be known.
+     * @return position of tail, {@link #NO_TAIL} or {@link #UNKNOWN}.
+     */
+    static long findTail(Cache cache, long length) throws ProxyCacheException {
+        byte[] header = new byte[LARGE_HEADER_SIZE];
+        long offset = 0;
+        boolean mdatFound = false;
+        while (offset < length) {
+            int headerLength = (int) Math.min(LARGE_HEADER_SIZE, length - offset);
+            if (headerLength < HEADER_SIZE) {
+                return NO_TAIL;
+            }
+            if (!cache.externalPatch(offset, offset + headerLength).isEmpty()) {
+                return mdatFound ? offset : UNKNOWN;
+            }
+            readFully(cache, header, offset, headerLength);
+            long size = readUnsignedInt(header, 0);
+            String type = new String(header, 4, 4, HttpRequestParser.ASCII);
+            if (offset == 0 && !"ftyp".equals(type)) {
+                return NO_TAIL;
+            }
+            if (size == 1 && headerLength == LARGE_HEADER_SIZE) {
+                size = readUnsignedInt(header, 8) << 32 | readUnsignedInt(header, 12);
+            } else if (size == 0) {
+                size = length - offset;
+            }
+            if (size < HEADER_SIZE) {
+                return NO_TAIL;
+            }
+            if ("moov".equals(type)) {
+                return NO_TAIL; // moov is at the head or already cached
+            }
+            mdatFound |= "mdat".equals(type);
+            offset += size;
+        }
+        return NO_TAIL;
+    }
+
+    private static void readFully(Cache cache, byte[] buffer, long offset, int length) throws ProxyCacheException {
+        int read = 0;
+        while (read < length) {
+            int count = cache.read(buffer, offset + read, read, length - read);
+            if (count <= 0) {
+                throw new ProxyCacheException("Error reading box header at " + offset);
+            }
+            read += count;
+        }
+    }
+
+    private static long readUnsignedInt(byte[] data, int offset) {
+        return (data[offset] & 0xFFL) << 24 | (data[offset + 1] & 0xFFL) << 16 | (data[offset + 2] & 0xFFL) << 8 | data[offset + 3] & 0xFFL;
+    }
+}
@@ -0,0 +1,175 @@
+package com.iwdael.videocache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.iwdael.videocache.Preconditions.checkArgument;
+
+/**
+ * Few I/O threads serving origin connections of all {@link NioHttpSource}s.
+ * <p>
+ * Every thread runs selector loop: connects, writes requests and reads responses of many connections without
+ * blocking, body is buffered per connection and read by source. Connection stops reading when its buffer is full
+ * until source consumes data, so slow consumer doesn't make engine buffer whole file.
+ */
+public final class NioHttpEngine {
+
+    private static final Logger LOG = LoggerFactory.getLogger("NioHttpEngine");
+
+    public static final int DEFAULT_IO_THREADS = 2;
+
+    private final IoLoop[] loops;
+    private final AtomicInteger nextLoop = new AtomicInteger();
+
+    public NioHttpEngine() {
+        this(DEFAULT_IO_THREADS);
+    }
+
+    /**
+     * @param ioThreads count of I/O threads, connections are distributed between them in round-robin order.
+     */
+    public NioHttpEngine(int ioThreads) {
+        checkArgument(ioThreads > 0, "I/O threads count must be positive!");
+        this.loops = new IoLoop[ioThreads];
+        for (int i = 0; i < ioThreads; i++) {
+            loops[i] = new IoLoop(i);
+        }
+    }
+
+    /**
+     * Starts exchange on one of I/O threads.
+     */
+    void start(NioHttpExchange exchange) throws ProxyCacheException {
+        IoLoop loop = loops[(nextLoop.getAndIncrement() & Integer.MAX_VALUE) % loops.length];
+        loop.start(exchange);
+    }
+
+    /**
+     * Stops I/O threads, pending exchanges fail.
+     */
+    public void shutdown() {
+        for (IoLoop loop : loops) {
+            loop.shutdown();
+        }
+    }
+
+    /**
+     * Thread of engine with its own selector.
+     */
+    static final class IoLoop implements Runnable {
+
+        private final int index;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final Set<NioHttpExchange> exchanges = new HashSet<>(); // used by I/O thread only
+        private volatile Selector selector; // read by consumer threads in execute() without lock
+        private Thread thread;
+        private boolean shutdown;
+
+        IoLoop(int index) {
+            this.index = index;
+        }
+
+        synchronized void start(final NioHttpExchange exchange) throws ProxyCacheException {
+            if (shutdown) {
+                throw new ProxyCacheException("Engine is shut down");
+            }
+            if (thread == null) {
+                try {
+                    selector = Selector.open();
+                } catch (IOException e) {
+                    throw new ProxyCacheException("Error opening selector", e);
+                }
+                thread = new Thread(this, "NioHttpEngine-" + index);
+                thread.setDaemon(true);
+                thread.start();
+            }
+            execute(new Runnable() {
+                @Override
+                public void run() {
+                    exchange.connect(IoLoop.this, selector);
+                }
+            });
+        }
+
+        /**
+         * Runs task on I/O thread.
+         */
+        void execute(Runnable task) {
+            tasks.add(task);
+            Selector selector = this.selector;
+            if (selector != null) {
+                selector.wakeup();
+            }
+        }
+
+        void onStarted(NioHttpExchange exchange) {
+            exchanges.add(exchange);
+        }
+
+        void onFinished(NioHttpExchange exchange) {
+            exchanges.remove(exchange);
+        }
+
+        synchronized void shutdown() {
+            shutdown = true;
+            if (selector != null) {
+                try {
+                    selector.close(); // loop fails its exchanges on exit
+                } catch (IOException e) {
+                    LOG.warn("Error closing selector", e);
+                }
+                selector.wakeup();
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (selector.isOpen()) {
+                    runTasks();
+                    selector.select();
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        ((NioHttpExchange) key.attachment()).onReady(key);
+                    }
+                }
+            } catch (IOException | ClosedSelectorException e) {
+                LOG.debug("I/O loop " + index + " is stopped: " + e);
+            } finally {
+                failPending();
+            }
+        }
+
+        private void runTasks() {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                task.run();
+            }
+        }
+
+        private void failPending() {
+            synchronized (this) {
+                shutdown = true;
+            }
+            ProxyCacheUtils.close(selector);
+            runTasks(); // exchanges not started yet fail to register with closed selector
+            for (NioHttpExchange exchange : new ArrayList<>(exchanges)) {
+                exchange.fail(new IOException("Engine is shut down"));
+            }
+        }
+    }
+}
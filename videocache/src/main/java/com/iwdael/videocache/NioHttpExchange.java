@@ -0,0 +1,678 @@
+package com.iwdael.videocache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+
+/**
+ * Single request to origin made by {@link NioHttpEngine}: non-blocking connection (plain or TLS), request,
+ * response head and body buffered for consumer.
+ * <p>
+ * Channel, TLS engine and parser are used only by I/O thread, consumer threads interact with exchange
+ * through synchronized methods reading buffered head and body.
+ */
+final class NioHttpExchange {
+
+    private static final Logger LOG = LoggerFactory.getLogger("NioHttpExchange");
+
+    private static final int MAX_HEAD_SIZE = 64 * 1024;
+    private static final int MAX_BUFFERED = 256 * 1024;
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private enum State {HEAD, BODY, CHUNK_SIZE, CHUNK_DATA, CHUNK_END, TRAILERS, DONE}
+
+    private final InetSocketAddress address;
+    private final String host;
+    private final boolean tls;
+    private final ByteBuffer request;
+
+    private volatile NioHttpEngine.IoLoop loop;
+    // used by I/O thread only
+    private SocketChannel channel;
+    private SelectionKey key;
+    private SSLEngine sslEngine;
+    private boolean handshaken;
+    private ByteBuffer netIn;
+    private ByteBuffer netOut;
+    private ByteBuffer appIn;
+    private State state = State.HEAD;
+    private long remaining;
+
+    // shared with consumer, guarded by this
+    private final Deque<ByteBuffer> body = new ArrayDeque<>();
+    private int buffered;
+    private boolean paused;
+    private boolean resumeScheduled;
+    private int code = -1;
+    private Map<String, String> headers;
+    private long contentLength = -1;
+    private boolean complete;
+    private boolean closed;
+    private IOException failure;
+
+    /**
+     * @param address resolved address of origin.
+     * @param tls     {@code true} if connection is secured.
+     */
+    NioHttpExchange(InetSocketAddress address, String host, boolean tls, byte[] request) {
+        this.address = address;
+        this.host = host;
+        this.tls = tls;
+        this.request = ByteBuffer.wrap(request);
+    }
+
+    // ------------------------------------------------------------------ consumer side
+
+    /**
+     * Waits until response head is received.
+     *
+     * @return response status code.
+     */
+    synchronized int awaitHead(long timeout) throws IOException, ProxyCacheException {
+        long deadline = System.currentTimeMillis() + timeout;
+        while (code == -1) {
+            await(deadline, "Timeout waiting response from " + host);
+        }
+        return code;
+    }
+
+    synchronized String header(String name) {
+        return headers == null ? null : headers.get(name.toLowerCase(Locale.US));
+    }
+
+    synchronized long contentLength() {
+        return contentLength;
+    }
+
+    /**
+     * Copies buffered body to array, waiting while nothing is buffered.
+     *
+     * @return count of copied bytes or {@code -1} if body is read completely.
+     */
+    int read(byte[] buffer, long timeout) throws IOException, ProxyCacheException {
+        int read = 0;
+        boolean resume;
+        synchronized (this) {
+            long deadline = System.currentTimeMillis() + timeout;
+            while (body.isEmpty() && !complete) {
+                await(deadline, "Timeout reading data from " + host);
+            }
+            while (read < buffer.length && !body.isEmpty()) {
+                ByteBuffer chunk = body.peekFirst();
+                int count = Math.min(buffer.length - read, chunk.remaining());
+                chunk.get(buffer, read, count);
+                read += count;
+                if (!chunk.hasRemaining()) {
+                    body.pollFirst();
+                }
+            }
+            buffered -= read;
+            resume = paused && !resumeScheduled && buffered < MAX_BUFFERED / 2;
+            resumeScheduled |= resume;
+        }
+        if (resume) {
+            loop.execute(new Runnable() {
+                @Override
+                public void run() {
+                    resumeReading();
+                }
+            });
+        }
+        return read == 0 ? -1 : read;
+    }
+
+    /**
+     * Stops exchange, connection is closed by I/O thread.
+     */
+    void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            body.clear();
+            notifyAll();
+        }
+        NioHttpEngine.IoLoop loop = this.loop;
+        if (loop != null) {
+            loop.execute(new Runnable() {
+                @Override
+                public void run() {
+                    closeChannel();
+                }
+            });
+        }
+    }
+
+    private void await(long deadline, String timeoutMessage) throws IOException, ProxyCacheException {
+        if (failure != null) {
+            throw failure;
+        }
+        if (closed) {
+            throw new ProxyCacheException("Exchange with " + host + " is closed");
+        }
+        long delay = deadline - System.currentTimeMillis();
+        if (delay <= 0) {
+            throw new SocketTimeoutException(timeoutMessage);
+        }
+        try {
+            wait(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedProxyCacheException("Waiting response from " + host + " is interrupted", e);
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    // ------------------------------------------------------------------ I/O thread side
+
+    void connect(NioHttpEngine.IoLoop loop, Selector selector) {
+        this.loop = loop;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+        }
+        loop.onStarted(this);
+        try {
+            channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            key = channel.register(selector, SelectionKey.OP_CONNECT, this);
+            if (channel.connect(address)) {
+                onConnected();
+            }
+        } catch (IOException | RuntimeException e) {
+            fail(e instanceof IOException ? (IOException) e : new IOException("Error connecting to " + host, e));
+        }
+    }
+
+    void onReady(SelectionKey key) {
+        try {
+            if (!key.isValid()) {
+                return;
+            }
+            if (key.isConnectable()) {
+                if (!channel.finishConnect()) {
+                    return;
+                }
+                onConnected();
+                return;
+            }
+            process();
+        } catch (IOException e) {
+            fail(e);
+        } catch (RuntimeException e) {
+            fail(new IOException("Error processing response of " + host, e));
+        }
+    }
+
+    private void onConnected() throws IOException {
+        if (tls) {
+            SSLContext context;
+            try {
+                context = SSLContext.getDefault();
+            } catch (java.security.NoSuchAlgorithmException e) {
+                throw new IOException("TLS isn't supported", e);
+            }
+            sslEngine = context.createSSLEngine(host, address.getPort());
+            sslEngine.setUseClientMode(true);
+            sslEngine.beginHandshake();
+            netIn = ByteBuffer.allocate(sslEngine.getSession().getPacketBufferSize());
+            netOut = ByteBuffer.allocate(sslEngine.getSession().getPacketBufferSize());
+            appIn = ByteBuffer.allocate(Math.max(sslEngine.getSession().getApplicationBufferSize(), ProxyCacheUtils.DEFAULT_BUFFER_SIZE));
+        } else {
+            appIn = ByteBuffer.allocate(4 * ProxyCacheUtils.DEFAULT_BUFFER_SIZE);
+        }
+        process();
+    }
+
+    private void process() throws IOException {
+        if (tls && isHandshaking() && !handshake()) {
+            return;
+        }
+        if (!writeRequest()) {
+            key.interestOps(SelectionKey.OP_WRITE);
+            return;
+        }
+        while (!paused && state != State.DONE) {
+            if (tls && isHandshaking() && !handshake()) {
+                return; // e.g. key update or renegotiation requested by server waits for channel
+            }
+            int read = readPlain();
+            if (read == -1) {
+                onEndOfStream();
+                return;
+            }
+            if (!parse() && read == 0 && !(tls && isHandshaking())) {
+                break;
+            }
+        }
+        if (state != State.DONE) {
+            key.interestOps(paused ? 0 : SelectionKey.OP_READ);
+        }
+    }
+
+    /**
+     * Returns {@code true} if initial handshake isn't finished yet or engine takes part in post-handshake
+     * messages (TLS 1.3 key update, TLS 1.2 renegotiation) and must run tasks or send answer.
+     */
+    private boolean isHandshaking() {
+        return !handshaken || sslEngine.getHandshakeStatus() != SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING;
+    }
+
+    /**
+     * Performs TLS handshake as far as channel allows. It is used for the initial handshake
+     * as well as for handshake messages received later.
+     *
+     * @return {@code true} if handshake is finished.
+     */
+    private boolean handshake() throws IOException {
+        while (true) {
+            SSLEngineResult.HandshakeStatus status = sslEngine.getHandshakeStatus();
+            if (status == SSLEngineResult.HandshakeStatus.FINISHED || status == SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING) {
+                if (!flush()) {
+                    key.interestOps(SelectionKey.OP_WRITE);
+                    return false;
+                }
+                if (!handshaken && !HttpsURLConnection.getDefaultHostnameVerifier().verify(host, sslEngine.getSession())) {
+                    throw new SSLException("Hostname " + host + " isn't verified");
+                }
+                handshaken = true;
+                return true;
+            }
+            if (status == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+                Runnable task;
+                while ((task = sslEngine.getDelegatedTask()) != null) {
+                    task.run();
+                }
+            } else if (status == SSLEngineResult.HandshakeStatus.NEED_WRAP) {
+                SSLEngineResult result = sslEngine.wrap(EMPTY, netOut);
+                if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+                    netOut = enlarge(netOut, sslEngine.getSession().getPacketBufferSize());
+                } else if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                    throw new SSLException("Connection is closed during handshake with " + host);
+                }
+                if (!flush()) {
+                    key.interestOps(SelectionKey.OP_WRITE);
+                    return false;
+                }
+            } else { // unwrap
+                if (!flush()) {
+                    key.interestOps(SelectionKey.OP_WRITE);
+                    return false;
+                }
+                int pending = netIn.position();
+                unwrap();
+                if (netIn.position() == pending && sslEngine.getHandshakeStatus() == status) { // more data is needed
+                    int read = channel.read(netIn);
+                    if (read == -1) {
+                        throw new SSLException("Connection is closed during handshake with " + host);
+                    }
+                    if (read == 0) {
+                        key.interestOps(SelectionKey.OP_READ);
+                        return false;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes request (encrypted if needed).
+     *
+     * @return {@code true} if request is written completely.
+     */
+    private boolean writeRequest() throws IOException {
+        if (!tls) {
+            if (request.hasRemaining()) {
+                channel.write(request);
+            }
+            return !request.hasRemaining();
+        }
+        while (request.hasRemaining()) {
+            SSLEngineResult result = sslEngine.wrap(request, netOut);
+            if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+                if (!flush()) {
+                    return false;
+                }
+                netOut = enlarge(netOut, sslEngine.getSession().getPacketBufferSize());
+            } else if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                throw new SSLException("Connection to " + host + " is closed");
+            }
+        }
+        return flush();
+    }
+
+    /**
+     * Writes pending encrypted bytes.
+     *
+     * @return {@code true} if everything is written.
+     */
+    private boolean flush() throws IOException {
+        if (netOut == null || netOut.position() == 0) {
+            return true;
+        }
+        netOut.flip();
+        channel.write(netOut);
+        boolean flushed = !netOut.hasRemaining();
+        netOut.compact();
+        return flushed;
+    }
+
+    /**
+     * Reads available bytes into {@link #appIn}.
+     *
+     * @return count of bytes added to {@link #appIn} or {@code -1} if connection is closed.
+     */
+    private int readPlain() throws IOException {
+        if (!appIn.hasRemaining()) {
+            appIn = enlarge(appIn, appIn.capacity());
+        }
+        if (!tls) {
+            return channel.read(appIn);
+        }
+        int produced = unwrap();
+        if (produced > 0 || isHandshaking()) {
+            return produced; // engine's answer is sent by handshake() before reading more
+        }
+        int read = channel.read(netIn);
+        if (read == -1) {
+            return -1;
+        }
+        produced = unwrap();
+        return produced == -1 ? -1 : produced;
+    }
+
+    /**
+     * Decrypts buffered network bytes into {@link #appIn}.
+     *
+     * @return count of decrypted bytes or {@code -1} if peer closed TLS session.
+     */
+    private int unwrap() throws IOException {
+        int produced = 0;
+        netIn.flip();
+        try {
+            while (netIn.hasRemaining()) {
+                SSLEngineResult result = sslEngine.unwrap(netIn, appIn);
+                produced += result.bytesProduced();
+                SSLEngineResult.Status status = result.getStatus();
+                if (status == SSLEngineResult.Status.BUFFER_UNDERFLOW) {
+                    if (netIn.limit() == netIn.capacity()) {
+                        netIn.compact();
+                        netIn = enlarge(netIn, sslEngine.getSession().getPacketBufferSize());
+                        netIn.flip();
+                        continue;
+                    }
+                    break;
+                }
+                if (status == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+                    appIn = enlarge(appIn, sslEngine.getSession().getApplicationBufferSize());
+                    continue;
+                }
+                if (status == SSLEngineResult.Status.CLOSED) {
+                    return produced > 0 ? produced : -1;
+                }
+                SSLEngineResult.HandshakeStatus handshakeStatus = result.getHandshakeStatus();
+                if (handshakeStatus == SSLEngineResult.HandshakeStatus.NEED_TASK || handshakeStatus == SSLEngineResult.HandshakeStatus.NEED_WRAP) {
+                    break; // engine has to answer, process() runs handshake() for it
+                }
+                if (result.bytesConsumed() == 0 && result.bytesProduced() == 0) {
+                    break;
+                }
+            }
+        } finally {
+            netIn.compact();
+        }
+        return produced;
+    }
+
+    /**
+     * Parses bytes of {@link #appIn}.
+     *
+     * @return {@code true} if something is parsed.
+     */
+    private boolean parse() throws IOException {
+        appIn.flip();
+        int start = appIn.position();
+        try {
+            while (appIn.hasRemaining() && state != State.DONE && !paused) {
+                if (!parseNext()) {
+                    break;
+                }
+            }
+        } finally {
+            boolean parsed = appIn.position() > start;
+            appIn.compact();
+            if (parsed) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean parseNext() throws IOException {
+        switch (state) {
+            case HEAD:
+                return parseHead();
+            case BODY:
+                int length = remaining >= 0 ? (int) Math.min(appIn.remaining(), remaining) : appIn.remaining();
+                deliver(length);
+                if (remaining >= 0) {
+                    remaining -= length;
+                    if (remaining == 0) {
+                        finish();
+                    }
+                }
+                return true;
+            case CHUNK_SIZE:
+                String sizeLine = readLine();
+                if (sizeLine == null) {
+                    return false;
+                }
+                int extension = sizeLine.indexOf(';');
+                try {
+                    remaining = Long.parseLong((extension != -1 ? sizeLine.substring(0, extension) : sizeLine).trim(), 16);
+                } catch (NumberFormatException e) {
+                    throw new IOException("Invalid chunk size: " + sizeLine, e);
+                }
+                state = remaining == 0 ? State.TRAILERS : State.CHUNK_DATA;
+                return true;
+            case CHUNK_DATA:
+                int chunkLength = (int) Math.min(appIn.remaining(), remaining);
+                deliver(chunkLength);
+                remaining -= chunkLength;
+                if (remaining == 0) {
+                    state = State.CHUNK_END;
+                }
+                return true;
+            case CHUNK_END:
+                if (readLine() == null) {
+                    return false;
+                }
+                state = State.CHUNK_SIZE;
+                return true;
+            case TRAILERS:
+                String trailer = readLine();
+                if (trailer == null) {
+                    return false;
+                }
+                if (trailer.isEmpty()) {
+                    finish();
+                }
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private boolean parseHead() throws IOException {
+        int end = -1;
+        for (int i = appIn.position(); i + 3 < appIn.limit(); i++) {
+            if (appIn.get(i) == '\r' && appIn.get(i + 1) == '\n' && appIn.get(i + 2) == '\r' && appIn.get(i + 3) == '\n') {
+                end = i + 4;
+                break;
+            }
+        }
+        if (end == -1) {
+            if (appIn.remaining() > MAX_HEAD_SIZE) {
+                throw new IOException("Response head of " + host + " is too large");
+            }
+            return false;
+        }
+        byte[] raw = new byte[end - appIn.position()];
+        appIn.get(raw);
+        String[] lines = new String(raw, HttpRequestParser.ASCII).split("\r\n");
+        String[] status = lines[0].split(" ", 3);
+        if (status.length < 2 || !status[0].startsWith("HTTP/")) {
+            throw new IOException("Invalid status line: " + lines[0]);
+        }
+        int code;
+        try {
+            code = Integer.parseInt(status[1]);
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid status line: " + lines[0], e);
+        }
+        if (code < 200) {
+            return true; // interim response, the next head follows
+        }
+        Map<String, String> headers = new HashMap<>();
+        for (int i = 1; i < lines.length; i++) {
+            int colon = lines[i].indexOf(':');
+            if (colon > 0) {
+                headers.put(lines[i].substring(0, colon).trim().toLowerCase(Locale.US), lines[i].substring(colon + 1).trim());
+            }
+        }
+        boolean chunked = "chunked".equalsIgnoreCase(headers.get("transfer-encoding"));
+        String contentLength = headers.get("content-length");
+        long length = contentLength == null || chunked ? -1 : Long.parseLong(contentLength.trim());
+        synchronized (this) {
+            this.code = code;
+            this.headers = headers;
+            this.contentLength = length;
+            notifyAll();
+        }
+        if (code == 204 || code == 304 || length == 0) {
+            finish();
+        } else {
+            state = chunked ? State.CHUNK_SIZE : State.BODY;
+            remaining = length;
+        }
+        return true;
+    }
+
+    /**
+     * Returns line ending with CRLF from {@link #appIn} or {@code null} if line isn't received completely.
+     */
+    private String readLine() {
+        for (int i = appIn.position(); i + 1 < appIn.limit(); i++) {
+            if (appIn.get(i) == '\r' && appIn.get(i + 1) == '\n') {
+                byte[] line = new byte[i - appIn.position()];
+                appIn.get(line);
+                appIn.position(appIn.position() + 2);
+                return new String(line, HttpRequestParser.ASCII);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Moves body bytes from {@link #appIn} to consumer's buffer.
+     */
+    private void deliver(int length) {
+        ByteBuffer chunk = ByteBuffer.allocate(length);
+        int limit = appIn.limit();
+        appIn.limit(appIn.position() + length);
+        chunk.put(appIn);
+        appIn.limit(limit);
+        chunk.flip();
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            body.addLast(chunk);
+            buffered += length;
+            paused = buffered >= MAX_BUFFERED;
+            notifyAll();
+        }
+    }
+
+    private void resumeReading() {
+        synchronized (this) {
+            resumeScheduled = false;
+            if (state == State.DONE || closed) {
+                return;
+            }
+            paused = false;
+        }
+        try {
+            process();
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    private void onEndOfStream() throws IOException {
+        if (state == State.BODY && remaining < 0) {
+            finish(); // body is delimited by end of stream
+            return;
+        }
+        throw new IOException("Connection to " + host + " is closed unexpectedly");
+    }
+
+    private void finish() {
+        state = State.DONE;
+        synchronized (this) {
+            complete = true;
+            notifyAll();
+        }
+        closeChannel();
+    }
+
+    void fail(IOException e) {
+        LOG.debug("Exchange with " + host + " failed: " + e);
+        state = State.DONE;
+        synchronized (this) {
+            if (failure == null) {
+                failure = e;
+            }
+            notifyAll();
+        }
+        closeChannel();
+    }
+
+    private void closeChannel() {
+        if (key != null) {
+            key.cancel();
+        }
+        ProxyCacheUtils.close(channel);
+        loop.onFinished(this);
+    }
+
+    private static ByteBuffer enlarge(ByteBuffer buffer, int minCapacity) {
+        ByteBuffer enlarged = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, minCapacity));
+        buffer.flip();
+        enlarged.put(buffer);
+        return enlarged;
+    }
+}
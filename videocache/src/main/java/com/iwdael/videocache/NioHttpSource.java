@@ -0,0 +1,210 @@
+package com.iwdael.videocache;
+
+import android.text.TextUtils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.iwdael.videocache.Preconditions.checkNotNull;
+
+/**
+ * {@link Source} fetching http resource with non-blocking connections of {@link NioHttpEngine}.
+ * <p>
+ * Connection is served by engine's I/O thread, source only takes body already buffered by engine,
+ * so many concurrent downloads don't need a thread blocked in socket read each.
+ * Requests are sent directly to origin, system proxies aren't used.
+ */
+public class NioHttpSource implements InfoSource {
+
+    private static final Logger LOG = LoggerFactory.getLogger("NioHttpSource");
+
+    private static final int MAX_REDIRECTS = 5;
+    private static final int READ_TIMEOUT = 15000;
+    private static final int INFO_TIMEOUT = 10000;
+
+    private final NioHttpEngine engine;
+    private final Map<String, String> headers;
+    private CacheInfo cacheInfo;
+    private volatile boolean responded;
+    private NioHttpExchange exchange;
+
+    public NioHttpSource(String url, NioHttpEngine engine) {
+        this(url, new HashMap<String, String>(), engine);
+    }
+
+    public NioHttpSource(String url, Map<String, String> headers, NioHttpEngine engine) {
+        this.cacheInfo = new CacheInfo(url, Integer.MIN_VALUE, ProxyCacheUtils.getSupposablyMime(url));
+        this.headers = checkNotNull(headers);
+        this.engine = checkNotNull(engine);
+    }
+
+    @Override
+    public synchronized long length() throws ProxyCacheException {
+        if (cacheInfo.length == Integer.MIN_VALUE) {
+            fetchContentInfo();
+        }
+        return cacheInfo.length;
+    }
+
+    @Override
+    public void open(long offset) throws ProxyCacheException {
+        open(offset, null);
+    }
+
+    @Override
+    public void open(long offset, String ifRange) throws ProxyCacheException {
+        close();
+        try {
+            exchange = execute(offset, ifRange, READ_TIMEOUT);
+            int code = exchange.awaitHead(READ_TIMEOUT);
+            long length = code == 200 ? exchange.contentLength()
+                    : code == 206 ? OriginRequest.partialResponseLength(exchange.header("Content-Range"), exchange.contentLength(), offset)
+                    : cacheInfo.length;
+            this.cacheInfo = new CacheInfo(cacheInfo.url, length, exchange.header("Content-Type"),
+                    exchange.header("ETag"), exchange.header("Last-Modified"));
+            this.responded = true;
+        } catch (IOException e) {
+            throw new ProxyCacheException("Error opening connection for " + cacheInfo.url + " with offset " + offset, e);
+        }
+    }
+
+    @Override
+    public int read(byte[] buffer) throws ProxyCacheException {
+        if (exchange == null) {
+            throw new ProxyCacheException("Error reading data from " + cacheInfo.url + ": connection is absent!");
+        }
+        try {
+            return exchange.read(buffer, READ_TIMEOUT);
+        } catch (SocketTimeoutException e) {
+            throw new ProxyCacheException("Timeout reading data from " + cacheInfo.url, e);
+        } catch (IOException e) {
+            throw new ProxyCacheException("Error reading data from " + cacheInfo.url, e);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (exchange != null) {
+            exchange.close();
+            exchange = null;
+        }
+    }
+
+    private void fetchContentInfo() {
+        LOG.debug("Read content info from " + cacheInfo.url);
+        NioHttpExchange info = null;
+        try {
+            info = execute(0, null, INFO_TIMEOUT);
+            this.cacheInfo = new CacheInfo(cacheInfo.url, info.contentLength(), info.header("Content-Type"),
+                    info.header("ETag"), info.header("Last-Modified"));
+            this.responded = true;
+            LOG.debug("Source info fetched: " + cacheInfo);
+        } catch (IOException | ProxyCacheException e) {
+            LOG.error("Error fetching info from " + cacheInfo.url, e);
+        } finally {
+            if (info != null) {
+                info.close();
+            }
+        }
+    }
+
+    /**
+     * Starts request to resolved location of url if it is known, otherwise follows redirects and remembers final location.
+     *
+     * @return exchange with received successful response head.
+     */
+    private NioHttpExchange execute(long offset, String ifRange, int timeout) throws IOException, ProxyCacheException {
+        String url = cacheInfo.url;
+        String location = RedirectCache.SHARED.get(url);
+        if (location != null) {
+            try {
+                return execute(url, new URL(location), offset, ifRange, timeout);
+            } catch (InterruptedProxyCacheException e) {
+                throw e; // source is closed or thread is stopped, location is fine
+            } catch (ProxyCacheException e) {
+                LOG.debug("Resolved location " + location + " fails (" + e.getMessage() + "), follow redirects of " + url + " again");
+                RedirectCache.SHARED.invalidate(url);
+            }
+        }
+        return execute(url, new URL(url), offset, ifRange, timeout);
+    }
+
+    /**
+     * @param original url final location is remembered for.
+     */
+    private NioHttpExchange execute(String original, URL url, long offset, String ifRange, int timeout) throws IOException, ProxyCacheException {
+        for (int redirects = 0; redirects <= MAX_REDIRECTS; redirects++) {
+            NioHttpExchange exchange = start(url, offset, ifRange);
+            int code;
+            try {
+                code = exchange.awaitHead(timeout);
+            } catch (IOException | ProxyCacheException e) {
+                exchange.close();
+                throw e;
+            }
+            if (code == 301 || code == 302 || code == 303 || code == 307 || code == 308) {
+                String location = exchange.header("Location");
+                exchange.close();
+                if (location == null) {
+                    throw new ProxyCacheException("Redirect without location from " + url);
+                }
+                url = new URL(url, location);
+                continue;
+            }
+            if (code != 200 && code != 206) {
+                exchange.close();
+                throw new ProxyCacheException("Error response " + code + " from " + url);
+            }
+            if (redirects > 0) {
+                RedirectCache.SHARED.put(original, url.toString());
+            }
+            return exchange;
+        }
+        throw new ProxyCacheException("Too many redirects: " + MAX_REDIRECTS);
+    }
+
+    private NioHttpExchange start(URL url, long offset, String ifRange) throws IOException, ProxyCacheException {
+        boolean https = "https".equalsIgnoreCase(url.getProtocol());
+        if (!https && !"http".equalsIgnoreCase(url.getProtocol())) {
+            throw new ProxyCacheException("Unsupported protocol of " + url);
+        }
+        int port = url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+        InetSocketAddress address = new InetSocketAddress(url.getHost(), port); // host is resolved by caller's thread
+        if (address.isUnresolved()) {
+            throw new IOException("Unknown host " + url.getHost());
+        }
+        LOG.debug("Send request" + (offset > 0 ? " with offset " + offset : "") + " to " + url);
+        NioHttpExchange exchange = new NioHttpExchange(address, url.getHost(), https, OriginRequest.newGetRequest(url, headers, offset, -1, ifRange, false));
+        engine.start(exchange);
+        return exchange;
+    }
+
+    public synchronized String getMime() throws ProxyCacheException {
+        if (TextUtils.isEmpty(cacheInfo.mime) && !responded) {
+            fetchContentInfo();
+        }
+        return cacheInfo.mime;
+    }
+
+    @Override
+    public CacheInfo getInfo() {
+        return responded ? cacheInfo : null;
+    }
+
+    @Override
+    public String getUrl() {
+        return cacheInfo.url;
+    }
+
+    @Override
+    public String toString() {
+        return "NioHttpSource{sourceInfo='" + cacheInfo + "}";
+    }
+}
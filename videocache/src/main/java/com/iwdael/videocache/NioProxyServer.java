@@ -0,0 +1,337 @@
+package com.iwdael.videocache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.iwdael.videocache.Preconditions.checkArgument;
+import static com.iwdael.videocache.Preconditions.checkNotNull;
+
+/**
+ * Non-blocking accept/read loop for {@link HttpProxyCacheServer}.
+ * <p>
+ * One or a few event loop threads multiplex all player connections while they are idle or sending request headers.
+ * As soon as request is completely received connection is switched to blocking mode and handed off
+ * to {@link RequestListener} that performs blocking cache and origin work.
+ * Persistent connections are returned back to event loop with {@link #resume(Connection, int)}.
+ */
+final class NioProxyServer {
+
+    private static final Logger LOG = LoggerFactory.getLogger("NioProxyServer");
+    private static final int IDLE_CHECK_INTERVAL = 1000;
+
+    private final ServerSocketChannel serverChannel;
+    private final EventLoop[] eventLoops;
+    private final RequestListener listener;
+    private final AtomicInteger nextEventLoop = new AtomicInteger();
+
+    NioProxyServer(InetAddress address, int eventLoopsCount, RequestListener listener) throws IOException {
+        checkArgument(eventLoopsCount > 0, "Event loops count must be positive!");
+        this.listener = checkNotNull(listener);
+        this.serverChannel = ServerSocketChannel.open();
+        this.serverChannel.socket().bind(new InetSocketAddress(address, 0), 8);
+        this.serverChannel.configureBlocking(false);
+        this.eventLoops = new EventLoop[eventLoopsCount];
+        for (int i = 0; i < eventLoopsCount; i++) {
+            eventLoops[i] = new EventLoop(Selector.open());
+        }
+        serverChannel.register(eventLoops[0].selector, SelectionKey.OP_ACCEPT);
+    }
+
+    int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    void start() throws InterruptedException {
+        CountDownLatch startSignal = new CountDownLatch(eventLoops.length);
+        for (int i = 0; i < eventLoops.length; i++) {
+            eventLoops[i].start(startSignal, "Proxy event loop " + i);
+        }
+        startSignal.await(); // freeze thread, wait for all loops start
+    }
+
+    /**
+     * Returns connection served by {@link RequestListener} back to event loop to wait for next request.
+     *
+     * @param connection  a connection to be resumed.
+     * @param idleTimeout max idle time in milliseconds, connection will be closed if next request is not received.
+     */
+    void resume(Connection connection, int idleTimeout) {
+        try {
+            connection.channel.configureBlocking(false); // buffer keeps bytes of pipelined requests received after served one
+            connection.idleDeadline = System.currentTimeMillis() + idleTimeout;
+            connection.eventLoop.enqueue(connection);
+        } catch (IOException e) {
+            LOG.error("Error resuming connection " + connection.channel, e);
+            closeChannel(connection.channel);
+        }
+    }
+
+    /**
+     * Returns {@code true} if event loop accepting new connections is running.
+     */
+    boolean isAccepting() {
+        Thread acceptor = eventLoops[0].thread;
+        return acceptor != null && acceptor.isAlive() && serverChannel.isOpen();
+    }
+
+    void shutdown() {
+        for (EventLoop eventLoop : eventLoops) {
+            eventLoop.shutdown();
+        }
+        try {
+            serverChannel.close();
+        } catch (IOException e) {
+            LOG.error("Error closing server channel", e);
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            LOG.debug("Accept new channel " + channel);
+            channel.configureBlocking(false);
+            int index = (nextEventLoop.getAndIncrement() & Integer.MAX_VALUE) % eventLoops.length;
+            EventLoop eventLoop = eventLoops[index];
+            eventLoop.enqueue(new Connection(channel, eventLoop));
+        }
+    }
+
+    private static void closeChannel(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            LOG.warn("Error closing channel: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Callback invoked from event loop thread when request is completely read.
+     * Implementation must not block: it owns passed connection (already in blocking mode)
+     * and is responsible for closing its socket or resuming it.
+     */
+    interface RequestListener {
+
+        void onRequest(GetRequest request, Connection connection);
+    }
+
+    /**
+     * Player connection that may serve several sequential requests.
+     */
+    static final class Connection {
+
+        private final SocketChannel channel;
+        private final EventLoop eventLoop;
+        private final ByteBuffer buffer = ByteBuffer.allocate(HttpRequestParser.MAX_REQUEST_SIZE);
+        private int requestsCount;
+        private long idleDeadline;
+
+        private Connection(SocketChannel channel, EventLoop eventLoop) {
+            this.channel = channel;
+            this.eventLoop = eventLoop;
+        }
+
+        Socket socket() {
+            return channel.socket();
+        }
+
+        int incrementRequestsCount() {
+            return ++requestsCount;
+        }
+    }
+
+    private final class EventLoop implements Runnable {
+
+        private final Selector selector;
+        private final Queue<Connection> pendingConnections = new ConcurrentLinkedQueue<>();
+        private final List<SelectionKey> completedKeys = new ArrayList<>();
+        private volatile Thread thread;
+        private CountDownLatch startSignal;
+
+        EventLoop(Selector selector) {
+            this.selector = selector;
+        }
+
+        void start(CountDownLatch startSignal, String name) {
+            this.startSignal = startSignal;
+            this.thread = new Thread(this, name);
+            this.thread.start();
+        }
+
+        void enqueue(Connection connection) {
+            pendingConnections.add(connection);
+            selector.wakeup();
+        }
+
+        void shutdown() {
+            if (thread != null) {
+                thread.interrupt();
+            }
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            startSignal.countDown();
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    selector.select(IDLE_CHECK_INTERVAL);
+                    registerPendingConnections();
+                    processSelectedKeys();
+                    handOffCompletedRequests();
+                    closeIdleConnections();
+                }
+            } catch (IOException | ClosedSelectorException e) {
+                LOG.error("Error in proxy event loop", e);
+            } finally {
+                closeSelector();
+            }
+        }
+
+        private void registerPendingConnections() {
+            Connection connection;
+            while ((connection = pendingConnections.poll()) != null) {
+                try {
+                    SelectionKey key = connection.channel.register(selector, SelectionKey.OP_READ, connection);
+                    if (hasCompleteRequest(connection)) { // pipelined request is already received, channel may stay silent
+                        key.cancel();
+                        completedKeys.add(key);
+                    }
+                } catch (IOException e) {
+                    LOG.error("Error registering channel " + connection.channel, e);
+                    closeChannel(connection.channel);
+                }
+            }
+        }
+
+        private void processSelectedKeys() throws IOException {
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                if (!key.isValid()) {
+                    continue;
+                }
+                if (key.isAcceptable()) {
+                    accept();
+                } else if (key.isReadable()) {
+                    readRequest(key);
+                }
+            }
+        }
+
+        private void readRequest(SelectionKey key) {
+            SocketChannel channel = (SocketChannel) key.channel();
+            Connection connection = (Connection) key.attachment();
+            try {
+                int read = channel.read(connection.buffer);
+                if (read > 0) {
+                    connection.idleDeadline = 0; // request is being received, connection isn't idle anymore
+                }
+                if (read == -1) {
+                    key.cancel();
+                    closeChannel(channel);
+                } else if (hasCompleteRequest(connection)) {
+                    key.cancel();
+                    completedKeys.add(key);
+                } else if (!connection.buffer.hasRemaining()) {
+                    LOG.warn("Request headers exceed " + HttpRequestParser.MAX_REQUEST_SIZE + " bytes, closing " + channel);
+                    key.cancel();
+                    closeChannel(channel);
+                }
+            } catch (IOException e) {
+                // There is no way to determine that client closed connection http://stackoverflow.com/a/10241044/999458
+                // So just to prevent log flooding don't log stacktrace
+                LOG.debug("Closing channel… Channel is closed by client.");
+                key.cancel();
+                closeChannel(channel);
+            }
+        }
+
+        private void handOffCompletedRequests() throws IOException {
+            if (completedKeys.isEmpty()) {
+                return;
+            }
+            selector.selectNow(); // deregister cancelled keys, it is required for switching channel to blocking mode
+            for (SelectionKey key : completedKeys) {
+                SocketChannel channel = (SocketChannel) key.channel();
+                Connection connection = (Connection) key.attachment();
+                try {
+                    byte[] data = connection.buffer.array();
+                    int end = HttpRequestParser.indexOfHeadersEnd(data, 0, connection.buffer.position());
+                    GetRequest request = HttpRequestParser.parse(data, 0, end);
+                    connection.buffer.flip();
+                    connection.buffer.position(end);
+                    connection.buffer.compact(); // only bytes of next requests are left
+                    channel.configureBlocking(true);
+                    listener.onRequest(request, connection);
+                } catch (IllegalArgumentException e) {
+                    LOG.warn("Bad request from " + channel + ": " + e.getMessage());
+                    responseToBadRequest(channel);
+                    closeChannel(channel);
+                } catch (IOException e) {
+                    LOG.error("Error handing off request from " + channel, e);
+                    closeChannel(channel);
+                }
+            }
+            completedKeys.clear();
+        }
+
+        private void responseToBadRequest(SocketChannel channel) {
+            try {
+                channel.write(ByteBuffer.wrap(HttpRequestParser.BAD_REQUEST_RESPONSE)); // channel is still non-blocking, short response fits socket buffer
+            } catch (IOException e) {
+                LOG.debug("Error writing bad request response to " + channel);
+            }
+        }
+
+        private boolean hasCompleteRequest(Connection connection) {
+            return HttpRequestParser.indexOfHeadersEnd(connection.buffer.array(), 0, connection.buffer.position()) != -1;
+        }
+
+        private void closeIdleConnections() {
+            long now = System.currentTimeMillis();
+            for (SelectionKey key : selector.keys()) {
+                Object attachment = key.attachment();
+                if (attachment instanceof Connection && key.isValid()) {
+                    Connection connection = (Connection) attachment;
+                    if (connection.idleDeadline > 0 && connection.idleDeadline < now) {
+                        LOG.debug("Closing channel… Keep-alive timeout is expired.");
+                        key.cancel();
+                        closeChannel(connection.channel);
+                    }
+                }
+            }
+        }
+
+        private void closeSelector() {
+            for (SelectionKey key : selector.keys()) {
+                if (key.channel() instanceof SocketChannel) {
+                    closeChannel((SocketChannel) key.channel());
+                }
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                LOG.error("Error closing selector", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package com.iwdael.videocache;
+
+import java.util.Map;
+
+import static com.iwdael.videocache.Preconditions.checkNotNull;
+
+/**
+ * Creates {@link NioHttpSource}s sharing single {@link NioHttpEngine}, so all origin connections
+ * are served by engine's few I/O threads.
+ */
+public class NioSourceCreator implements SourceCreator<Source> {
+
+    private final NioHttpEngine engine;
+
+    public NioSourceCreator() {
+        this(new NioHttpEngine());
+    }
+
+    public NioSourceCreator(NioHttpEngine engine) {
+        this.engine = checkNotNull(engine);
+    }
+
+    @Override
+    public Source create(String url, Map<String, String> headers) {
+        return new NioHttpSource(url, headers, engine);
+    }
+}
@@ -0,0 +1,64 @@
+package com.iwdael.videocache;
+
+import android.text.TextUtils;
+
+import java.net.URL;
+import java.util.Map;
+
+/**
+ * Builds http requests to origin for sources working with sockets directly and reads lengths of responses.
+ */
+final class OriginRequest {
+
+    private OriginRequest() {
+    }
+
+    /**
+     * Returns length of resource given by partial response: total from {@code Content-Range} or,
+     * if it isn't known, offset plus body length.
+     */
+    static long partialResponseLength(String contentRange, long contentLength, long offset) {
+        int slash = contentRange != null ? contentRange.lastIndexOf('/') : -1;
+        if (slash != -1) {
+            try {
+                return Long.parseLong(contentRange.substring(slash + 1).trim());
+            } catch (NumberFormatException e) {
+                // total is '*'
+            }
+        }
+        return contentLength >= 0 ? contentLength + offset : -1;
+    }
+
+    /**
+     * Returns GET request for data of url starting from offset.
+     *
+     * @param headers   custom headers given by {@link com.iwdael.videocache.headers.HeaderInjector}.
+     * @param end       last requested byte (inclusive) or {@code -1} for data up to the end of resource.
+     * @param ifRange   validator range is conditional on or {@code null}.
+     * @param keepAlive {@code true} if connection is reused after response, otherwise origin is asked to close it.
+     */
+    static byte[] newGetRequest(URL url, Map<String, String> headers, long offset, long end, String ifRange, boolean keepAlive) {
+        StringBuilder request = new StringBuilder()
+                .append("GET ").append(TextUtils.isEmpty(url.getFile()) ? "/" : url.getFile()).append(" HTTP/1.1\r\n")
+                .append("Host: ").append(url.getHost()).append(url.getPort() != -1 ? ":" + url.getPort() : "").append("\r\n");
+        boolean userAgent = false;
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            request.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+            userAgent |= "User-Agent".equalsIgnoreCase(header.getKey());
+        }
+        String agent = System.getProperty("http.agent");
+        if (!userAgent && !TextUtils.isEmpty(agent)) {
+            request.append("User-Agent: ").append(agent).append("\r\n");
+        }
+        if (offset > 0 || end >= 0) {
+            request.append("Range: bytes=").append(offset).append('-').append(end >= 0 ? String.valueOf(end) : "").append("\r\n");
+            if (ifRange != null) {
+                request.append("If-Range: ").append(ifRange).append("\r\n");
+            }
+        }
+        request.append("Accept-Encoding: identity\r\n")
+                .append(keepAlive ? "Connection: keep-alive\r\n" : "Connection: close\r\n")
+                .append("\r\n");
+        return request.toString().getBytes(HttpRequestParser.ASCII);
+    }
+}
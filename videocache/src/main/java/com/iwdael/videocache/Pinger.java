@@ -4,16 +4,20 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.net.InetSocketAddress;
 import java.net.Proxy;
 import java.net.ProxySelector;
 import java.net.Socket;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
+import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -35,10 +39,16 @@ class Pinger {
     private static final Logger LOG = LoggerFactory.getLogger("Pinger");
     private static final String PING_REQUEST = "ping";
     private static final String PING_RESPONSE = "ping ok";
+    private static final int PING_SOCKET_TIMEOUT = 1000;
+    private static final int MAX_PING_RESPONSE_SIZE = 1024;
 
     private final ExecutorService pingExecutor = Executors.newSingleThreadExecutor();
     private final String host;
     private final int port;
+    /**
+     * Local ports of ping connections in progress, server recognizes them without reading request.
+     */
+    private final Set<Integer> pingPorts = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
 
     Pinger(String host, int port) {
         this.host = checkNotNull(host);
@@ -93,23 +103,52 @@ class Pinger {
         out.write(PING_RESPONSE.getBytes());
     }
 
-    private boolean pingServer() throws ProxyCacheException {
-        String pingUrl = getPingUrl();
-        HttpUrlSource source = new HttpUrlSource(pingUrl);
+    /**
+     * Returns {@code true} if accepted socket is connection opened by this pinger, so server may answer it
+     * on accepting thread instead of queueing it behind player requests.
+     */
+    boolean isPingConnection(Socket socket) {
+        return pingPorts.contains(socket.getPort()) && socket.getInetAddress().equals(socket.getLocalAddress());
+    }
+
+    /**
+     * Sends ping request through plain socket: its local port is bound before connecting,
+     * so server knows ping connection as soon as it is accepted.
+     */
+    private boolean pingServer() {
+        Socket socket = new Socket(Proxy.NO_PROXY);
+        Integer localPort = null;
         try {
-            byte[] expectedResponse = PING_RESPONSE.getBytes();
-            source.open(0);
-            byte[] response = new byte[expectedResponse.length];
-            source.read(response);
-            boolean pingOk = Arrays.equals(expectedResponse, response);
-            LOG.info("Ping response: `" + new String(response) + "`, pinged? " + pingOk);
+            socket.bind(new InetSocketAddress(host, 0));
+            localPort = socket.getLocalPort();
+            pingPorts.add(localPort);
+            socket.connect(new InetSocketAddress(host, port), PING_SOCKET_TIMEOUT);
+            socket.setSoTimeout(PING_SOCKET_TIMEOUT);
+            String request = "GET /" + PING_REQUEST + " HTTP/1.1\r\nHost: " + host + ":" + port + "\r\nConnection: close\r\n\r\n";
+            socket.getOutputStream().write(request.getBytes(HttpRequestParser.ASCII));
+            String response = readResponse(socket.getInputStream());
+            boolean pingOk = response.endsWith(PING_RESPONSE);
+            LOG.debug("Ping response: `" + response + "`, pinged? " + pingOk);
             return pingOk;
-        } catch (ProxyCacheException e) {
+        } catch (IOException e) {
             LOG.error("Error reading ping response", e);
             return false;
         } finally {
-            source.close();
+            if (localPort != null) {
+                pingPorts.remove(localPort);
+            }
+            ProxyCacheUtils.close(socket);
+        }
+    }
+
+    private String readResponse(InputStream in) throws IOException {
+        byte[] buffer = new byte[MAX_PING_RESPONSE_SIZE];
+        int length = 0;
+        int read;
+        while (length < buffer.length && (read = in.read(buffer, length, buffer.length - length)) != -1) {
+            length += read;
         }
+        return new String(buffer, 0, length, HttpRequestParser.ASCII);
     }
 
     private String getPingUrl() {
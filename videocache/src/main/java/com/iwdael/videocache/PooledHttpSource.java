@@ -0,0 +1,405 @@
+package com.iwdael.videocache;
+
+import android.text.TextUtils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import static com.iwdael.videocache.Preconditions.checkNotNull;
+
+/**
+ * {@link Source} fetching http resource through persistent connections of {@link ConnectionPool}.
+ * <p>
+ * Unlike {@link HttpUrlSource} closing source doesn't tear down socket: connection is returned to pool
+ * if response is read completely or its rest is small enough to be skipped, otherwise it is closed.
+ * Requests are sent directly to origin, system proxies aren't used.
+ */
+public class PooledHttpSource implements InfoSource {
+
+    private static final Logger LOG = LoggerFactory.getLogger("PooledHttpSource");
+
+    private static final int MAX_REDIRECTS = 5;
+    private static final int READ_TIMEOUT = 15000;
+    private static final int INFO_TIMEOUT = 10000;
+    private static final long MAX_SKIPPED_BODY = 64 * 1024;
+
+    private final ConnectionPool pool;
+    private final Map<String, String> headers;
+    private CacheInfo cacheInfo;
+    private volatile boolean responded;
+    private Response response;
+
+    public PooledHttpSource(String url, ConnectionPool pool) {
+        this(url, new HashMap<String, String>(), pool);
+    }
+
+    public PooledHttpSource(String url, Map<String, String> headers, ConnectionPool pool) {
+        this.cacheInfo = new CacheInfo(url, Integer.MIN_VALUE, ProxyCacheUtils.getSupposablyMime(url));
+        this.headers = checkNotNull(headers);
+        this.pool = checkNotNull(pool);
+    }
+
+    @Override
+    public synchronized long length() throws ProxyCacheException {
+        if (cacheInfo.length == Integer.MIN_VALUE) {
+            fetchContentInfo();
+        }
+        return cacheInfo.length;
+    }
+
+    @Override
+    public void open(long offset) throws ProxyCacheException {
+        open(offset, null);
+    }
+
+    @Override
+    public void open(long offset, String ifRange) throws ProxyCacheException {
+        close();
+        try {
+            response = execute(offset, -1, ifRange, READ_TIMEOUT);
+            long length = response.code == 200 ? response.contentLength
+                    : response.code == 206 ? OriginRequest.partialResponseLength(response.header("Content-Range"), response.contentLength, offset)
+                    : cacheInfo.length;
+            this.cacheInfo = new CacheInfo(cacheInfo.url, length, response.header("Content-Type"),
+                    response.header("ETag"), response.header("Last-Modified"));
+            this.responded = true;
+        } catch (IOException e) {
+            throw new ProxyCacheException("Error opening connection for " + cacheInfo.url + " with offset " + offset, e);
+        }
+    }
+
+    @Override
+    public int read(byte[] buffer) throws ProxyCacheException {
+        if (response == null) {
+            throw new ProxyCacheException("Error reading data from " + cacheInfo.url + ": connection is absent!");
+        }
+        try {
+            return response.body.read(buffer, 0, buffer.length);
+        } catch (SocketTimeoutException e) {
+            throw new ProxyCacheException("Timeout reading data from " + cacheInfo.url, e);
+        } catch (InterruptedIOException e) {
+            throw new InterruptedProxyCacheException("Reading source " + cacheInfo.url + " is interrupted", e);
+        } catch (IOException e) {
+            throw new ProxyCacheException("Error reading data from " + cacheInfo.url, e);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (response != null) {
+            response.release();
+            response = null;
+        }
+    }
+
+    /**
+     * Requests only the first byte: length is taken from {@code Content-Range}, so connection is reused without
+     * transferring (or dropping) the whole body. Origin ignoring range answers with full body and its length.
+     */
+    private void fetchContentInfo() {
+        LOG.debug("Read content info from " + cacheInfo.url);
+        Response info = null;
+        try {
+            info = execute(0, 0, null, INFO_TIMEOUT);
+            long length = info.code == 206 ? OriginRequest.partialResponseLength(info.header("Content-Range"), -1, 0) : info.contentLength;
+            this.cacheInfo = new CacheInfo(cacheInfo.url, length, info.header("Content-Type"),
+                    info.header("ETag"), info.header("Last-Modified"));
+            this.responded = true;
+            LOG.debug("Source info fetched: " + cacheInfo);
+        } catch (IOException | ProxyCacheException e) {
+            LOG.error("Error fetching info from " + cacheInfo.url, e);
+        } finally {
+            if (info != null) {
+                info.release();
+            }
+        }
+    }
+
+    /**
+     * Sends GET request to resolved location of url if it is known, otherwise follows redirects and remembers final location.
+     */
+    private Response execute(long offset, long end, String ifRange, int timeout) throws IOException, ProxyCacheException {
+        String url = cacheInfo.url;
+        String location = RedirectCache.SHARED.get(url);
+        if (location != null) {
+            try {
+                return execute(url, new URL(location), offset, end, ifRange, timeout);
+            } catch (InterruptedProxyCacheException e) {
+                throw e; // source is closed or thread is stopped, location is fine
+            } catch (ProxyCacheException e) {
+                LOG.debug("Resolved location " + location + " fails (" + e.getMessage() + "), follow redirects of " + url + " again");
+                RedirectCache.SHARED.invalidate(url);
+            }
+        }
+        return execute(url, new URL(url), offset, end, ifRange, timeout);
+    }
+
+    /**
+     * Sends GET request following redirects, returns response with successful status.
+     *
+     * @param original url final location is remembered for.
+     */
+    private Response execute(String original, URL url, long offset, long end, String ifRange, int timeout) throws IOException, ProxyCacheException {
+        for (int redirects = 0; redirects <= MAX_REDIRECTS; redirects++) {
+            Response response = send(url, offset, end, ifRange, timeout);
+            int code = response.code;
+            if (code == 301 || code == 302 || code == 303 || code == 307 || code == 308) {
+                String location = response.header("Location");
+                response.release();
+                if (location == null) {
+                    throw new ProxyCacheException("Redirect without location from " + url);
+                }
+                url = new URL(url, location);
+                continue;
+            }
+            if (code != 200 && code != 206) {
+                response.release();
+                throw new ProxyCacheException("Error response " + code + " from " + url);
+            }
+            if (redirects > 0) {
+                RedirectCache.SHARED.put(original, url.toString());
+            }
+            return response;
+        }
+        throw new ProxyCacheException("Too many redirects: " + MAX_REDIRECTS);
+    }
+
+    /**
+     * Sends request through pooled connection. Idle connection could be already closed by server,
+     * so request failed on reused connection is repeated.
+     */
+    private Response send(URL url, long offset, long end, String ifRange, int timeout) throws IOException, ProxyCacheException {
+        while (true) {
+            ConnectionPool.Connection connection = pool.acquire(url, timeout);
+            LOG.debug("Send request" + (offset > 0 ? " with offset " + offset : "") + " to " + url + " via " + connection);
+            try {
+                connection.out.write(OriginRequest.newGetRequest(url, headers, offset, end, ifRange, true));
+                connection.out.flush();
+                return Response.read(pool, connection);
+            } catch (IOException e) {
+                pool.close(connection);
+                if (!connection.reused || e instanceof InterruptedIOException) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    public synchronized String getMime() throws ProxyCacheException {
+        if (TextUtils.isEmpty(cacheInfo.mime) && !responded) {
+            fetchContentInfo();
+        }
+        return cacheInfo.mime;
+    }
+
+    @Override
+    public CacheInfo getInfo() {
+        return responded ? cacheInfo : null;
+    }
+
+    @Override
+    public String getUrl() {
+        return cacheInfo.url;
+    }
+
+    @Override
+    public String toString() {
+        return "PooledHttpSource{sourceInfo='" + cacheInfo + "}";
+    }
+
+    /**
+     * Status and headers of http response, body is read from connection until its end given by
+     * {@code Content-Length}, chunked encoding or end of stream.
+     */
+    private static final class Response {
+
+        private final ConnectionPool pool;
+        private final ConnectionPool.Connection connection;
+        final int code;
+        final long contentLength;
+        private final Map<String, String> headers;
+        private final boolean keepAlive;
+        final Body body;
+
+        private Response(ConnectionPool pool, ConnectionPool.Connection connection, int code, Map<String, String> headers, boolean http10) {
+            this.pool = pool;
+            this.connection = connection;
+            this.code = code;
+            this.headers = headers;
+            String contentLength = header("Content-Length");
+            boolean chunked = "chunked".equalsIgnoreCase(header("Transfer-Encoding"));
+            this.contentLength = contentLength == null || chunked ? -1 : Long.parseLong(contentLength.trim());
+            String connectionHeader = header("Connection");
+            boolean close = http10 ? !"keep-alive".equalsIgnoreCase(connectionHeader) : "close".equalsIgnoreCase(connectionHeader);
+            boolean bodyless = code == 204 || code == 304 || code < 200;
+            this.body = new Body(connection.in, bodyless ? 0 : this.contentLength, chunked && !bodyless);
+            this.keepAlive = !close && (bodyless || chunked || this.contentLength >= 0);
+        }
+
+        static Response read(ConnectionPool pool, ConnectionPool.Connection connection) throws IOException {
+            String statusLine;
+            do {
+                statusLine = readLine(connection.in);
+                if (statusLine == null) {
+                    throw new IOException("Connection is closed by server");
+                }
+                Map<String, String> headers = new HashMap<>();
+                String line;
+                while (!TextUtils.isEmpty(line = readLine(connection.in))) {
+                    int colon = line.indexOf(':');
+                    if (colon > 0) {
+                        headers.put(line.substring(0, colon).trim().toLowerCase(Locale.US), line.substring(colon + 1).trim());
+                    }
+                }
+                String[] status = statusLine.split(" ", 3);
+                if (status.length < 2 || !status[0].startsWith("HTTP/")) {
+                    throw new IOException("Invalid status line: " + statusLine);
+                }
+                int code;
+                try {
+                    code = Integer.parseInt(status[1]);
+                } catch (NumberFormatException e) {
+                    throw new IOException("Invalid status line: " + statusLine, e);
+                }
+                if (code >= 200) {
+                    return new Response(pool, connection, code, headers, "HTTP/1.0".equals(status[0]));
+                }
+            } while (true); // interim 1xx responses are skipped
+        }
+
+        String header(String name) {
+            return headers.get(name.toLowerCase(Locale.US));
+        }
+
+        /**
+         * Returns connection to pool if the rest of body is skipped, closes it otherwise.
+         */
+        void release() {
+            boolean reusable = false;
+            try {
+                reusable = keepAlive && body.skipRest(MAX_SKIPPED_BODY);
+            } catch (IOException e) {
+                LOG.debug("Error skipping response body: " + e.getMessage());
+            }
+            pool.release(connection, reusable);
+        }
+
+        static String readLine(InputStream in) throws IOException {
+            StringBuilder line = new StringBuilder();
+            int b;
+            while ((b = in.read()) != -1) {
+                if (b == '\n') {
+                    int length = line.length();
+                    return length > 0 && line.charAt(length - 1) == '\r' ? line.substring(0, length - 1) : line.toString();
+                }
+                line.append((char) b);
+            }
+            return line.length() > 0 ? line.toString() : null;
+        }
+    }
+
+    private static final class Body extends InputStream {
+
+        private final InputStream in;
+        private final boolean chunked;
+        /**
+         * Bytes left in body (or current chunk), {@code -1} if body is read until end of stream.
+         */
+        private long remaining;
+        private boolean complete;
+
+        Body(InputStream in, long length, boolean chunked) {
+            this.in = in;
+            this.chunked = chunked;
+            this.remaining = chunked ? 0 : length;
+            this.complete = !chunked && length == 0;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (complete) {
+                return -1;
+            }
+            if (chunked && remaining == 0 && !nextChunk()) {
+                return -1;
+            }
+            int toRead = remaining >= 0 ? (int) Math.min(length, remaining) : length;
+            int read = in.read(buffer, offset, toRead);
+            if (read == -1) {
+                if (remaining >= 0) {
+                    throw new IOException("Unexpected end of response body");
+                }
+                complete = true;
+                return -1;
+            }
+            if (remaining > 0) {
+                remaining -= read;
+                complete = !chunked && remaining == 0;
+            }
+            return read;
+        }
+
+        /**
+         * Reads size of next chunk, skipping end of previous one.
+         *
+         * @return {@code false} if last chunk is reached.
+         */
+        private boolean nextChunk() throws IOException {
+            String line = Response.readLine(in);
+            if (line != null && line.isEmpty()) {
+                line = Response.readLine(in); // CRLF ending previous chunk
+            }
+            if (line == null) {
+                throw new IOException("Unexpected end of chunked response body");
+            }
+            int extension = line.indexOf(';');
+            try {
+                remaining = Long.parseLong((extension != -1 ? line.substring(0, extension) : line).trim(), 16);
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid chunk size: " + line, e);
+            }
+            if (remaining == 0) {
+                String trailer;
+                while (!TextUtils.isEmpty(trailer = Response.readLine(in))) {
+                    LOG.debug("Trailer is skipped: " + trailer);
+                }
+                complete = true;
+                return false;
+            }
+            return true;
+        }
+
+        /**
+         * Skips the rest of body if it isn't larger than limit.
+         *
+         * @return {@code true} if body is read completely, so connection can be reused.
+         */
+        boolean skipRest(long limit) throws IOException {
+            if (!complete && !chunked && remaining > limit) {
+                return false;
+            }
+            byte[] buffer = new byte[ProxyCacheUtils.DEFAULT_BUFFER_SIZE];
+            long skipped = 0;
+            int read;
+            while (!complete && skipped <= limit && (read = read(buffer, 0, buffer.length)) != -1) {
+                skipped += read;
+            }
+            return complete;
+        }
+    }
+}
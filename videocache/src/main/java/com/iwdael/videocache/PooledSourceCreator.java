@@ -0,0 +1,27 @@
+package com.iwdael.videocache;
+
+import java.util.Map;
+
+import static com.iwdael.videocache.Preconditions.checkNotNull;
+
+/**
+ * Creates {@link PooledHttpSource}s sharing single {@link ConnectionPool}, so connections to origin are reused
+ * by all urls of the same host.
+ */
+public class PooledSourceCreator implements SourceCreator<Source> {
+
+    private final ConnectionPool pool;
+
+    public PooledSourceCreator() {
+        this(new ConnectionPool());
+    }
+
+    public PooledSourceCreator(ConnectionPool pool) {
+        this.pool = checkNotNull(pool);
+    }
+
+    @Override
+    public Source create(String url, Map<String, String> headers) {
+        return new PooledHttpSource(url, headers, pool);
+    }
+}
@@ -0,0 +1,71 @@
+package com.iwdael.videocache;
+
+/**
+ * Handle of preload started by {@link HttpProxyCacheServer#preload(String, long, int)}.
+ */
+public final class PreloadTask {
+
+    enum State {QUEUED, RUNNING, DONE, FAILED, CANCELLED}
+
+    final String url;
+    /**
+     * Group of HLS segment or {@code null} for regular file.
+     */
+    final String group;
+    final long byteBudget;
+    final int priority;
+    final long sequence;
+    private final Preloader preloader;
+    private volatile State state = State.QUEUED;
+
+    PreloadTask(Preloader preloader, String url, String group, long byteBudget, int priority, long sequence) {
+        this.preloader = preloader;
+        this.url = url;
+        this.group = group;
+        this.byteBudget = byteBudget;
+        this.priority = priority;
+        this.sequence = sequence;
+    }
+
+    /**
+     * Stops preload. Data fetched so far is kept in cache.
+     */
+    public void cancel() {
+        preloader.cancel(this);
+    }
+
+    /**
+     * Returns {@code true} if preload is finished: data is cached, preload is failed or cancelled.
+     */
+    public boolean isDone() {
+        State state = this.state;
+        return state != State.QUEUED && state != State.RUNNING;
+    }
+
+    public boolean isCancelled() {
+        return state == State.CANCELLED;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    State state() {
+        return state;
+    }
+
+    void setState(State state) {
+        this.state = state;
+    }
+
+    @Override
+    public String toString() {
+        return "PreloadTask{" +
+                "url='" + url + '\'' +
+                ", group='" + group + '\'' +
+                ", byteBudget=" + byteBudget +
+                ", priority=" + priority +
+                ", state=" + state +
+                '}';
+    }
+}
@@ -0,0 +1,185 @@
+package com.iwdael.videocache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+import static com.iwdael.videocache.Preconditions.checkNotNull;
+
+/**
+ * Queue of background preloads of {@link HttpProxyCacheServer}.
+ * <p>
+ * Preloads are run one by one, task with the highest priority first (tasks of equal priority in order of submission).
+ * Players always take precedence: running preload is paused when player request arrives and is resumed
+ * (from the first missing byte) only when there were no player requests for {@link #PLAYER_QUIET_PERIOD}.
+ */
+final class Preloader {
+
+    private static final Logger LOG = LoggerFactory.getLogger("Preloader");
+    static final long PLAYER_QUIET_PERIOD = 3000;
+
+    private static final Comparator<PreloadTask> ORDER = (first, second) -> first.priority != second.priority
+            ? Integer.compare(second.priority, first.priority) : Long.compare(first.sequence, second.sequence);
+
+    private final ExecutorService executor;
+    private final Callback callback;
+    private final PriorityQueue<PreloadTask> queue = new PriorityQueue<>(11, ORDER);
+    private PreloadTask running;
+    private Thread worker;
+    private boolean workerStarted;
+    private long sequence;
+    private long lastPlayerRequest;
+    private boolean shutdown;
+
+    interface Callback {
+
+        /**
+         * Fetches data of task into cache, blocks until it is done.
+         */
+        void preload(PreloadTask task) throws ProxyCacheException;
+    }
+
+    Preloader(ExecutorService executor, Callback callback) {
+        this.executor = checkNotNull(executor);
+        this.callback = checkNotNull(callback);
+    }
+
+    /**
+     * Queues preload of file (or of HLS segment cached in group, if group isn't {@code null}).
+     */
+    synchronized PreloadTask submit(String url, String group, long byteBudget, int priority) {
+        PreloadTask task = new PreloadTask(this, url, group, byteBudget, priority, sequence++);
+        if (shutdown) {
+            task.setState(PreloadTask.State.CANCELLED);
+            return task;
+        }
+        queue.add(task);
+        if (running != null && ORDER.compare(task, running) < 0) {
+            interruptRunning(); // more important task goes first, interrupted one is continued later
+        }
+        startWorker();
+        notifyAll();
+        return task;
+    }
+
+    synchronized void cancel(PreloadTask task) {
+        if (task.isDone()) {
+            return;
+        }
+        task.setState(PreloadTask.State.CANCELLED);
+        queue.remove(task);
+        if (running == task) {
+            running = null;
+            worker.interrupt();
+        }
+    }
+
+    /**
+     * Pauses preloads while players are starting or seeking.
+     */
+    synchronized void onPlayerRequest() {
+        lastPlayerRequest = System.currentTimeMillis();
+        interruptRunning();
+    }
+
+    synchronized void shutdown() {
+        shutdown = true;
+        List<PreloadTask> tasks = new ArrayList<>(queue);
+        if (running != null) {
+            tasks.add(running);
+        }
+        for (PreloadTask task : tasks) {
+            cancel(task);
+        }
+        notifyAll();
+    }
+
+    private void interruptRunning() {
+        if (running != null) {
+            LOG.debug("Pause " + running);
+            running.setState(PreloadTask.State.QUEUED);
+            queue.add(running);
+            worker.interrupt();
+            running = null;
+        }
+    }
+
+    private void startWorker() {
+        if (workerStarted) {
+            return;
+        }
+        try {
+            executor.execute(new WorkerRunnable());
+            workerStarted = true;
+        } catch (RejectedExecutionException e) {
+            LOG.error("Error starting preloader", e);
+        }
+    }
+
+    /**
+     * Returns next task to be run or {@code null} if queue is empty. Waits while players are active.
+     */
+    private synchronized PreloadTask takeNext() throws InterruptedException {
+        while (!shutdown && !queue.isEmpty()) {
+            long quietFor = System.currentTimeMillis() - lastPlayerRequest;
+            if (quietFor < PLAYER_QUIET_PERIOD) {
+                wait(PLAYER_QUIET_PERIOD - quietFor);
+                continue;
+            }
+            running = queue.poll();
+            running.setState(PreloadTask.State.RUNNING);
+            worker = Thread.currentThread();
+            return running;
+        }
+        workerStarted = false;
+        return null;
+    }
+
+    private synchronized void onTaskFinished(PreloadTask task, boolean success) {
+        Thread.interrupted(); // interruption aimed to finished task must not affect next one
+        if (running == task) {
+            running = null;
+        }
+        if (task.state() == PreloadTask.State.RUNNING) { // neither paused nor cancelled
+            task.setState(success ? PreloadTask.State.DONE : PreloadTask.State.FAILED);
+        }
+    }
+
+    private void work() {
+        PreloadTask task;
+        try {
+            while ((task = takeNext()) != null) {
+                boolean success = false;
+                try {
+                    LOG.debug("Start " + task);
+                    callback.preload(task);
+                    success = true;
+                } catch (ProxyCacheException e) {
+                    if (task.state() == PreloadTask.State.RUNNING) {
+                        LOG.warn("Error preloading " + task.url, e);
+                    }
+                } finally {
+                    onTaskFinished(task, success);
+                }
+            }
+        } catch (InterruptedException e) {
+            synchronized (this) {
+                workerStarted = false;
+            }
+        }
+    }
+
+    private final class WorkerRunnable implements Runnable {
+
+        @Override
+        public void run() {
+            work();
+        }
+    }
+}
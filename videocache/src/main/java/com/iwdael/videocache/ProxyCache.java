@@ -3,9 +3,17 @@ package com.iwdael.videocache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import static com.iwdael.videocache.Preconditions.checkArgument;
 import static com.iwdael.videocache.Preconditions.checkNotNull;
 
 /**
@@ -21,35 +29,162 @@ class ProxyCache {
     public static final String TAG = "cache";
     private static final Logger LOG = LoggerFactory.getLogger("ProxyCache");
     private static final int MAX_READ_SOURCE_ATTEMPTS = 1;
+    private static final long MAX_TRANSFER_SIZE = 512 * 1024;
+    private static final long PLAYBACK_BUFFER_SIZE = 4 * 1024 * 1024;
+    private static final long LAYOUT_SCAN_LIMIT = 1024 * 1024;
+    private static final long MAX_TAIL_SIZE = 64 * 1024 * 1024;
 
     protected final Source source;
     protected final Cache cache;
-    private final Object wc = new Object();
+    protected final ReadAheadWindow readAhead;
+    protected final BandwidthManager bandwidth;
+    private final SourceReaderPool sourceReaderPool;
+    private final int maxSourceReaders;
+    private final FetchScheduler scheduler;
+    private final RangeWaiters waiters = new RangeWaiters();
+    private final Queue<Source> idleSources = new ConcurrentLinkedQueue<>();
+    private final List<Future<?>> sourceReaders = new ArrayList<>();
     private final Object stopLock = new Object();
     private final AtomicInteger readSourceErrorsCount;
-    private volatile Thread sourceReaderThread;
+    private final AtomicInteger failuresInRow = new AtomicInteger();
+    private final RetryPolicy retryPolicy;
+    private int activeSourceReaders;
     private volatile boolean stopped;
+    private volatile boolean sourceChanged;
+    private volatile boolean backgroundDemand;
+    private volatile boolean layoutChecked;
+    private volatile FetchScheduler.Segment tailSegment;
     private volatile int percentsAvailable = -1;
 
-    public ProxyCache(Source source, Cache cache) {
+    public ProxyCache(Source source, Cache cache, ExecutorService sourceReaderExecutor) {
+        this(source, cache, sourceReaderExecutor, 1);
+    }
+
+    /**
+     * @param sourceConnections max count of concurrent connections to source used for fetching missing data.
+     *                          Additional connections are opened only for {@link SourceWrapper}.
+     */
+    public ProxyCache(Source source, Cache cache, ExecutorService sourceReaderExecutor, int sourceConnections) {
+        this(source, cache, new SourceReaderPool(sourceReaderExecutor, Integer.MAX_VALUE), sourceConnections,
+                new ReadAheadWindow(0, 0), RetryPolicy.DEFAULT, BandwidthManager.UNLIMITED);
+    }
+
+    /**
+     * @param sourceReaderPool pool running source readers, shared by proxies of all urls.
+     * @param readAhead        window limiting how far source is fetched ahead of clients,
+     *                         clients report their progress with {@link ReadAheadWindow#onClientRead(ReadAheadWindow.Client, long)}.
+     * @param retryPolicy      rules for reopening source after failure.
+     * @param bandwidth        limits of origin traffic, shared by proxies of all urls.
+     */
+    public ProxyCache(Source source, Cache cache, SourceReaderPool sourceReaderPool, int sourceConnections, ReadAheadWindow readAhead,
+                      RetryPolicy retryPolicy, BandwidthManager bandwidth) {
+        checkArgument(sourceConnections > 0, "Source connections count must be positive!");
         this.source = checkNotNull(source);
         this.cache = checkNotNull(cache);
+        this.sourceReaderPool = checkNotNull(sourceReaderPool);
+        this.readAhead = checkNotNull(readAhead);
+        this.retryPolicy = checkNotNull(retryPolicy);
+        this.bandwidth = checkNotNull(bandwidth);
+        this.maxSourceReaders = source instanceof SourceWrapper ? sourceConnections : 1;
+        this.scheduler = new FetchScheduler(cache);
         this.readSourceErrorsCount = new AtomicInteger();
+        this.idleSources.add(source);
     }
 
     public int read(byte[] buffer, long pointer, int length) throws ProxyCacheException {
+        return read(buffer, pointer, length, Long.MAX_VALUE);
+    }
+
+    /**
+     * Reads data, fetching missing bytes from source if needed.
+     * <p>
+     * Method blocks only while byte at {@code pointer} isn't cached: if some bytes are available
+     * they are returned immediately even if it is less than {@code length}.
+     *
+     * @param limit position after last byte client is interested in, source is fetched only up to this limit.
+     */
+    public int read(byte[] buffer, long pointer, int length, long limit) throws ProxyCacheException {
         ProxyCacheUtils.assertBuffer(buffer, pointer, length);
-        while (!cache.isCompleted() && !cache.externalPatch(pointer, pointer + length).isEmpty() && !stopped) {
-            readSourceAsync(pointer);
-            waitForSourceData();
-            checkReadSourceErrorsCount();
+        long sourceLength = source.length();
+        if (sourceLength >= 0 && pointer >= sourceLength) {
+            return -1;
+        }
+        long available = cachedLength(pointer, length);
+        if (available <= 0) {
+            available = waitForSourceData(pointer, length, Math.max(pointer + length, limit), false);
+        }
+        int read = cache.read(buffer, pointer, 0, available > 0 ? (int) available : length);
+        notifyIfCompleted();
+        return read;
+    }
+
+    /**
+     * Transfers already cached data directly to channel. Unlike {@link #read(byte[], long, int)}
+     * this method never waits for source data.
+     *
+     * @param pointer   position of first byte to transfer.
+     * @param maxLength max count of bytes to transfer.
+     * @param target    a channel to write data to.
+     * @return count of transferred bytes or {@code 0} if data for pointer isn't cached yet.
+     * @throws ProxyCacheException if error occur while transferring data.
+     */
+    public long transferCached(long pointer, long maxLength, WritableByteChannel target) throws ProxyCacheException {
+        long available = cachedLength(pointer, Math.min(maxLength, MAX_TRANSFER_SIZE));
+        if (available <= 0) {
+            return 0;
+        }
+        long transferred = cache.transferTo(pointer, available, target);
+        notifyIfCompleted();
+        return transferred;
+    }
+
+    private long cachedLength(long pointer, long maxLength) throws ProxyCacheException {
+        long sourceLength = source.length();
+        if (sourceLength >= 0 && pointer >= sourceLength) {
+            return 0;
         }
-        int read = cache.read(buffer, pointer, 0, length);
+        long end = sourceLength >= 0 ? Math.min(sourceLength, pointer + maxLength) : pointer + maxLength;
+        if (cache.isCompleted() && sourceLength >= 0) {
+            return end - pointer;
+        }
+        List<CachePatch> missing = cache.externalPatch(pointer, end);
+        return missing.isEmpty() ? end - pointer : missing.get(0).start - pointer;
+    }
+
+    /**
+     * Fetches source into cache from file start up to {@code end} without reading cached data.
+     * Blocks until range is cached, unlike player's reads preload never re-targets readers of url.
+     *
+     * @throws ProxyCacheException if error occur while fetching data or waiting thread is interrupted.
+     */
+    public void preload(long end) throws ProxyCacheException {
+        long sourceLength = source.length();
+        end = sourceLength >= 0 ? Math.min(sourceLength, end) : end;
+        long pointer = 0;
+        ReadAheadWindow.Client client = readAhead.register(pointer);
+        try {
+            while (pointer < end && !stopped && !cache.isCompleted()) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedProxyCacheException("Preloading " + source + " is interrupted");
+                }
+                int maxLength = (int) Math.min(end - pointer, MAX_TRANSFER_SIZE);
+                long available = cachedLength(pointer, maxLength);
+                if (available <= 0) {
+                    available = waitForSourceData(pointer, maxLength, end, true);
+                }
+                pointer += available;
+                readAhead.onClientRead(client, pointer);
+            }
+        } finally {
+            readAhead.unregister(client);
+        }
+    }
+
+    private void notifyIfCompleted() {
         if (cache.isCompleted() && percentsAvailable != 100) {
             percentsAvailable = 100;
             onCachePercentsAvailableChanged(100);
         }
-        return read;
     }
 
     private void checkReadSourceErrorsCount() throws ProxyCacheException {
@@ -65,9 +200,9 @@ class ProxyCache {
             LOG.debug("Shutdown proxy for " + source);
             try {
                 stopped = true;
-                if (sourceReaderThread != null) {
-                    sourceReaderThread.interrupt();
-                }
+                cancelSourceReaders();
+                closeIdleSources();
+                waiters.signalAll();
                 cache.close();
             } catch (ProxyCacheException e) {
                 onError(e);
@@ -75,29 +210,134 @@ class ProxyCache {
         }
     }
 
-    private synchronized void readSourceAsync(long pointer) throws ProxyCacheException {
-        boolean readingInProgress = sourceReaderThread != null && sourceReaderThread.getState() != Thread.State.TERMINATED;
-        if (!stopped && !cache.isCompleted() && !readingInProgress) {
-            sourceReaderThread = new Thread(new SourceReaderRunnable(pointer), "Source reader for " + source);
-            sourceReaderThread.start();
+    /**
+     * Starts source readers for demanded range.
+     *
+     * @param newDemand  {@code true} if client starts waiting for this pointer, scheduler re-targets readers to the newest demand.
+     *                   Repeated calls of the same waiting client don't override demands of others.
+     * @param background {@code true} if demand is made by preload.
+     */
+    private synchronized void readSourceAsync(long pointer, long limit, boolean newDemand, boolean background) throws ProxyCacheException {
+        if (stopped || cache.isCompleted()) {
+            return;
         }
+        sourceReaders.removeIf(Future::isDone);
+        if (newDemand || scheduler.isIdle()) {
+            long sourceLength = source.length();
+            long end = sourceLength >= 0 ? Math.min(sourceLength, limit) : limit;
+            scheduler.demand(pointer, end, activeSourceReaders < maxSourceReaders);
+            backgroundDemand = background;
+        }
+        startSourceReaders();
     }
 
-    private void waitForSourceData() throws ProxyCacheException {
-        synchronized (wc) {
+    /**
+     * Starts readers for segments given by scheduler while there are free connections of this url.
+     * Readers are queued by {@link SourceReaderPool} if connections of whole proxy are exhausted.
+     */
+    private synchronized void startSourceReaders() throws ProxyCacheException {
+        while (activeSourceReaders < maxSourceReaders && !stopped) {
+            Source readerSource = acquireSource();
+            FetchScheduler.Segment segment = scheduler.next();
+            if (segment == null) {
+                idleSources.add(readerSource);
+                return;
+            }
             try {
-                wc.wait(1000);
-            } catch (InterruptedException e) {
-                throw new ProxyCacheException("Waiting source data is interrupted!", e);
+                sourceReaders.add(sourceReaderPool.submit(this, new SourceReaderRunnable(readerSource, segment)));
+                activeSourceReaders++;
+            } catch (RejectedExecutionException e) {
+                scheduler.finish(segment);
+                idleSources.add(readerSource);
+                throw new ProxyCacheException("Error starting source reader for " + source, e);
             }
         }
     }
 
-    private void notifyNewCacheDataAvailable(long cacheAvailable, long sourceAvailable) {
-        onCacheAvailable(cacheAvailable, sourceAvailable);
+    private Source acquireSource() {
+        Source idle = idleSources.poll();
+        return idle != null ? idle : ((SourceWrapper) source).newSelf();
+    }
+
+    /**
+     * Starts extra reader for tail of file, it isn't limited by count of source connections of this url.
+     */
+    private synchronized void startTailReader(long start, long end) {
+        if (stopped || !(source instanceof SourceWrapper)) {
+            return;
+        }
+        FetchScheduler.Segment segment = scheduler.claimUrgent(start, end);
+        if (segment == null) {
+            return;
+        }
+        Source readerSource = acquireSource();
+        try {
+            sourceReaders.add(sourceReaderPool.submit(this, new SourceReaderRunnable(readerSource, segment)));
+            activeSourceReaders++;
+            tailSegment = segment;
+        } catch (RejectedExecutionException e) {
+            scheduler.finish(segment);
+            idleSources.add(readerSource);
+            LOG.warn("Error starting tail reader for " + source, e);
+        }
+    }
+
+    /**
+     * Returns {@code true} if there are more readers than source connections, e.g. tail reader finished its segment.
+     */
+    private synchronized boolean isSurplusReader() {
+        return activeSourceReaders > maxSourceReaders;
+    }
+
+    private synchronized void onSourceReaderFinished(Source readerSource) {
+        activeSourceReaders--;
+        idleSources.add(readerSource);
+    }
 
-        synchronized (wc) {
-            wc.notifyAll();
+    /**
+     * Closes sources not used by readers, e.g. source opened for fetching info.
+     */
+    private void closeIdleSources() {
+        Source idle;
+        while ((idle = idleSources.poll()) != null) {
+            closeSource(idle);
+        }
+    }
+
+    private synchronized void cancelSourceReaders() {
+        for (Future<?> sourceReader : sourceReaders) {
+            sourceReader.cancel(true);
+        }
+        sourceReaders.clear();
+    }
+
+    /**
+     * Waits until byte at {@code pointer} is cached, starting source reader if needed.
+     *
+     * @param background {@code true} if waiting client is preload, it doesn't override demands of players.
+     * @return count of bytes available from {@code pointer} (not more than {@code maxLength}) or {@code 0} if proxy is stopped.
+     */
+    private long waitForSourceData(long pointer, int maxLength, long limit, boolean background) throws ProxyCacheException {
+        // waiter is registered before checking cache, so data written in between will wake it up
+        RangeWaiters.Waiter waiter = waiters.register(pointer);
+        try {
+            long available;
+            boolean newDemand = !background;
+            while ((available = cachedLength(pointer, maxLength)) <= 0 && !stopped) {
+                readSourceAsync(pointer, limit, newDemand, background);
+                newDemand = false;
+                // timeout is just a safety net, waiter is woken as soon as its byte is written or reader is finished
+                waiter.await(1000);
+                checkReadSourceErrorsCount();
+            }
+            if (available <= 0 && sourceChanged) {
+                throw new SourceChangedException("Source " + source.getUrl() + " is changed, cached data is dropped");
+            }
+            return available;
+        } catch (InterruptedException e) {
+            throw new ProxyCacheException("Waiting source data is interrupted!", e);
+        } finally {
+            waiters.unregister(waiter);
         }
     }
 
@@ -115,43 +355,225 @@ class ProxyCache {
     protected void onCachePercentsAvailableChanged(int percentsAvailable) {
     }
 
-    private void readSource(long pointer) {
+    private void readSource(Source source, FetchScheduler.Segment segment) {
+        long startedAt = System.currentTimeMillis();
+        boolean resume = false;
         try {
-            long sourceLength = source.length();
-            List<CachePatch> externals = cache.externalPatch(pointer, sourceLength);
+            long sourceLength = this.source.length();
             byte[] buffer = new byte[ProxyCacheUtils.DEFAULT_BUFFER_SIZE];
-            int r;
-            for (CachePatch external : externals) {
-                pointer = external.start;
-                source.open(pointer);
-                while ((r = source.read(buffer)) != -1) {
-                    synchronized (stopLock) {
-                        if (isStopped()) {
-                            return;
-                        }
-                        cache.write(buffer, pointer, 0, r);
-                        cache.putPatch(pointer, pointer + r);
+            while (segment != null && !isStopped()) {
+                long startPosition = segment.position;
+                try {
+                    if (!readSegment(source, segment, buffer, sourceLength, startedAt)) {
+                        // connection is given to reader of other url, rest of segment is read after them unless it waits for clients
+                        resume = !readAhead.isAhead(segment.position);
+                        break;
+                    }
+                } catch (ProxyCacheException e) {
+                    if (e instanceof SourceChangedException) {
+                        onSourceChanged(source);
+                        throw e;
+                    }
+                    if (!retryAfterFailure(source, segment, startPosition, e)) {
+                        throw e;
                     }
-                    pointer += r;
-                    notifyNewCacheDataAvailable(pointer, sourceLength);
-                    if (pointer >= external.end) break;
+                    continue; // segment is read again from its last cached byte
                 }
+                scheduler.finish(segment);
+                segment = isStopped() || isSurplusReader() ? null : scheduler.next();
             }
             tryComplete();
-            onSourceRead();
+            notifyIfCompleted(); // guaranteed notify listeners after source read and cache completed
         } catch (Throwable e) {
             readSourceErrorsCount.incrementAndGet();
             onError(e);
         } finally {
-            closeSource();
-            notifyNewCacheDataAvailable(pointer, -1);
+            if (segment != null) {
+                scheduler.finish(segment);
+            }
+            closeSource(source);
+            onSourceReaderFinished(source);
+            waiters.signalAll();
+            if (resume) {
+                resumeSourceReaders();
+            }
+        }
+    }
+
+    /**
+     * Drops stale data when resource of source is changed. Proxy is stopped and clients fail,
+     * so they request url again and get new resource from the next proxy instead of mix of old and new bytes.
+     */
+    private void onSourceChanged(Source readerSource) {
+        synchronized (stopLock) {
+            sourceChanged = true;
+            stopped = true;
+            try {
+                cache.clear();
+                ((SourceWrapper) readerSource).acceptChangedInfo();
+            } catch (ProxyCacheException e) {
+                onError(e);
+            }
+        }
+        cancelSourceReaders();
+        waiters.signalAll();
+    }
+
+    private void resumeSourceReaders() {
+        try {
+            startSourceReaders();
+        } catch (ProxyCacheException e) {
+            readSourceErrorsCount.incrementAndGet();
+            onError(e);
+        }
+    }
+
+    /**
+     * Reads segment until its end, preemption or stop.
+     *
+     * @return {@code false} if reader must give up its connection to readers of other urls.
+     */
+    private boolean readSegment(Source source, FetchScheduler.Segment segment, byte[] buffer, long sourceLength, long startedAt)
+            throws ProxyCacheException {
+        source.open(segment.position);
+        int r;
+        while (segment.position < segment.end) {
+            if (sourceReaderPool.shouldYield(this, startedAt)) {
+                LOG.debug("Readers of other urls are waiting, yield connection of " + source + " at " + segment.position);
+                return false;
+            }
+            if (segment != tailSegment && readAhead.isAhead(segment.position) && !pauseReading(source, segment, startedAt)) {
+                // paused reader is either preempted or stopped, otherwise it gives up connection to readers of other urls
+                return segment.position >= segment.end || isStopped();
+            }
+            if ((r = source.read(buffer)) == -1) {
+                if (sourceLength >= 0) { // segment never exceeds source, so connection is dropped
+                    throw new ProxyCacheException("Source " + source + " is closed unexpectedly at " + segment.position);
+                }
+                return true;
+            }
+            consumeBandwidth(trafficClass(segment), r);
+            long pointer = segment.position;
+            int length = (int) Math.min(r, segment.end - pointer); // segment could be shortened by split
+            if (length <= 0) {
+                return true;
+            }
+            synchronized (stopLock) {
+                if (isStopped() || cache.isCompleted()) {
+                    return true;
+                }
+                cache.write(buffer, pointer, 0, length);
+                cache.putPatch(pointer, pointer + length);
+            }
+            waiters.signal(pointer, pointer + length);
+            segment.position = pointer + length;
+            onCacheAvailable(segment.position, sourceLength);
+            checkLayout(pointer, sourceLength);
         }
+        return true;
     }
 
-    private void onSourceRead() {
-        // guaranteed notify listeners after source read and cache completed
-        percentsAvailable = 100;
-        onCachePercentsAvailableChanged(percentsAvailable);
+    /**
+     * Looks for {@code moov} box of MP4 file while head of file is written. If {@code moov} is at the tail
+     * (file isn't "fast start"), tail is fetched in parallel: player requests it right after head,
+     * so it is cached by then.
+     */
+    private void checkLayout(long pointer, long sourceLength) throws ProxyCacheException {
+        if (layoutChecked || pointer >= LAYOUT_SCAN_LIMIT) {
+            return;
+        }
+        long tail = sourceLength >= 0 ? Mp4Layout.findTail(cache, sourceLength) : Mp4Layout.NO_TAIL;
+        if (tail == Mp4Layout.UNKNOWN) {
+            return;
+        }
+        layoutChecked = true;
+        if (tail != Mp4Layout.NO_TAIL && sourceLength - tail <= MAX_TAIL_SIZE) {
+            LOG.debug("moov of " + source + " is expected at " + tail + ", fetch tail in parallel");
+            startTailReader(tail, sourceLength);
+        }
+    }
+
+    /**
+     * Classifies data being read: bytes player waits for, playback buffer, preload or bytes needed only to complete cache.
+     */
+    private TrafficClass trafficClass(FetchScheduler.Segment segment) {
+        if (segment.abandoned) {
+            return TrafficClass.FULL_CACHE;
+        }
+        if (backgroundDemand) {
+            return TrafficClass.PRELOAD;
+        }
+        if (segment == tailSegment) {
+            return TrafficClass.PLAYING; // player needs tail to start playback
+        }
+        if (!waiters.isEmpty()) {
+            return TrafficClass.SEEKING;
+        }
+        return readAhead.isNear(segment.position, PLAYBACK_BUFFER_SIZE) ? TrafficClass.PLAYING : TrafficClass.FULL_CACHE;
+    }
+
+    protected final void consumeBandwidth(TrafficClass trafficClass, int bytes) throws ProxyCacheException {
+        try {
+            bandwidth.consume(trafficClass, bytes);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedProxyCacheException("Waiting for bandwidth is interrupted", e);
+        }
+    }
+
+    /**
+     * Decides if failed segment should be read again and waits for backoff delay.
+     *
+     * @return {@code true} if segment should be re-read, {@code false} if error budget of url is exhausted or reading is stopped.
+     */
+    private boolean retryAfterFailure(Source source, FetchScheduler.Segment segment, long startPosition, ProxyCacheException e) {
+        if (e instanceof InterruptedProxyCacheException || isStopped()) {
+            return false;
+        }
+        if (segment.position > startPosition) {
+            failuresInRow.set(0); // some data is read since last failure, so connection was alive
+        }
+        int attempt = failuresInRow.incrementAndGet();
+        if (attempt > retryPolicy.errorBudget) {
+            return false;
+        }
+        long delay = retryPolicy.backoff(attempt);
+        LOG.warn("Error reading {} at {}, retry #{} in {} ms: {}", source, segment.position, attempt, delay, e.getMessage());
+        closeSource(source);
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException interruption) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return !isStopped();
+    }
+
+    /**
+     * Waits while segment's position is beyond read-ahead window. Source isn't kept opened during pause.
+     *
+     * @return {@code false} if segment shouldn't be read anymore (reading is stopped, segment is preempted
+     * or readers of other urls are waiting for connection).
+     */
+    private boolean pauseReading(Source source, FetchScheduler.Segment segment, long startedAt) throws ProxyCacheException {
+        LOG.debug("Read-ahead window is full, pause reading " + source + " at " + segment.position);
+        source.close();
+        try {
+            while (!readAhead.canResume(segment.position)) {
+                if (isStopped() || segment.position >= segment.end || sourceReaderPool.shouldYield(this, startedAt)) {
+                    return false;
+                }
+                readAhead.await(1000);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        if (isStopped() || segment.position >= segment.end) {
+            return false;
+        }
+        source.open(segment.position);
+        return true;
     }
 
     private void tryComplete() throws ProxyCacheException {
@@ -166,7 +588,7 @@ class ProxyCache {
         return Thread.currentThread().isInterrupted() || stopped;
     }
 
-    private void closeSource() {
+    private void closeSource(Source source) {
         try {
             source.close();
         } catch (ProxyCacheException e) {
@@ -184,15 +606,17 @@ class ProxyCache {
     }
 
     private class SourceReaderRunnable implements Runnable {
-        private final long pointer;
+        private final Source source;
+        private final FetchScheduler.Segment segment;
 
-        public SourceReaderRunnable(long pointer) {
-            this.pointer = pointer;
+        public SourceReaderRunnable(Source source, FetchScheduler.Segment segment) {
+            this.source = source;
+            this.segment = segment;
         }
 
         @Override
         public void run() {
-            readSource(pointer);
+            readSource(source, segment);
         }
     }
 }
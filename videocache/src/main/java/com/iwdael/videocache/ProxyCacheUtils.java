@@ -9,11 +9,15 @@ import org.slf4j.LoggerFactory;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
 import java.net.URLDecoder;
 import java.net.URLEncoder;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import static com.iwdael.videocache.Preconditions.checkArgument;
 import static com.iwdael.videocache.Preconditions.checkNotNull;
@@ -67,6 +71,21 @@ public class ProxyCacheUtils {
         }
     }
 
+    /**
+     * Creates executor that starts new virtual thread for each task.
+     *
+     * @return executor or {@code null} if runtime doesn't support virtual threads.
+     */
+    static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
+            LOG.debug("Virtual threads are unavailable: " + e);
+            return null;
+        }
+    }
+
     public static void close(Closeable closeable) {
         if (closeable != null) {
             try {
@@ -0,0 +1,22 @@
+package com.iwdael.videocache;
+
+/**
+ * Decides if partial request (e.g. made by player after seek) is served through cache or directly from origin.
+ * <p>
+ * Bytes of request served through cache are written to sparse cache file, so watching the same part again
+ * doesn't hit network. Request served directly isn't cached at all, but doesn't occupy source readers of url.
+ */
+public interface RangeCachePolicy {
+
+    /**
+     * Returns {@code true} if request should be served through cache.
+     *
+     * @param url          an url of requested file.
+     * @param offset       position of first requested byte.
+     * @param sourceLength length of requested file.
+     * @param distance     count of bytes between end of cached range closest to {@code offset} (from the left)
+     *                     and {@code offset}, {@code 0} if byte at {@code offset} is cached. If nothing is cached
+     *                     before {@code offset}, distance is counted from file start.
+     */
+    boolean isUseCache(String url, long offset, long sourceLength, long distance);
+}
@@ -0,0 +1,76 @@
+package com.iwdael.videocache;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Readers of {@link ProxyCache} waiting for particular bytes to be cached.
+ * <p>
+ * Reader registers offset it needs <b>before</b> checking cache, so data written between checking and waiting isn't missed.
+ * Writer signals every written range and wakes only readers whose offset is covered by this range,
+ * readers waiting for other parts of file keep sleeping.
+ */
+final class RangeWaiters {
+
+    private final List<Waiter> waiters = new ArrayList<>();
+
+    synchronized Waiter register(long offset) {
+        Waiter waiter = new Waiter(offset);
+        waiters.add(waiter);
+        return waiter;
+    }
+
+    synchronized void unregister(Waiter waiter) {
+        waiters.remove(waiter);
+    }
+
+    synchronized boolean isEmpty() {
+        return waiters.isEmpty();
+    }
+
+    /**
+     * Wakes readers waiting for any byte in range [start, end).
+     */
+    synchronized void signal(long start, long end) {
+        for (int i = 0; i < waiters.size(); i++) {
+            Waiter waiter = waiters.get(i);
+            if (start <= waiter.offset && waiter.offset < end) {
+                waiter.signal();
+            }
+        }
+    }
+
+    /**
+     * Wakes all readers, e.g. when source reading is finished or failed and readers should re-check state.
+     */
+    synchronized void signalAll() {
+        for (int i = 0; i < waiters.size(); i++) {
+            waiters.get(i).signal();
+        }
+    }
+
+    static final class Waiter {
+
+        final long offset;
+        private boolean signalled;
+
+        private Waiter(long offset) {
+            this.offset = offset;
+        }
+
+        private synchronized void signal() {
+            signalled = true;
+            notify();
+        }
+
+        /**
+         * Waits for signal or timeout. Signal sent before this call isn't lost.
+         */
+        synchronized void await(long timeout) throws InterruptedException {
+            if (!signalled) {
+                wait(timeout);
+            }
+            signalled = false;
+        }
+    }
+}
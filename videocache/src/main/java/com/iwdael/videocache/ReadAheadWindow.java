@@ -0,0 +1,121 @@
+package com.iwdael.videocache;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Limits how far source readers of {@link ProxyCache} fetch ahead of the furthest client.
+ * <p>
+ * Window is either fixed count of bytes or count of seconds at bitrate estimated from clients' progress
+ * (until bitrate is estimated bytes limit is used). Reader that reaches the end of window pauses and resumes
+ * only when quarter of window is free again, so origin isn't re-requested after every chunk read by player.
+ */
+final class ReadAheadWindow {
+
+    private static final long BITRATE_SAMPLE_INTERVAL = 1000;
+
+    private final long maxBytes;
+    private final int seconds;
+    private final List<Client> clients = new ArrayList<>();
+    private long furthest;
+    private long bitrate;
+    private long sampleTime;
+    private long samplePosition = -1;
+    private int pausedReaders;
+
+    /**
+     * @param maxBytes max count of bytes fetched ahead of client, {@code 0} if not limited.
+     * @param seconds  max count of seconds fetched ahead of client, {@code 0} if not limited.
+     */
+    ReadAheadWindow(long maxBytes, int seconds) {
+        this.maxBytes = maxBytes;
+        this.seconds = seconds;
+    }
+
+    synchronized Client register(long position) {
+        Client client = new Client(position);
+        clients.add(client);
+        furthest = clients.size() == 1 ? position : Math.max(furthest, position);
+        samplePosition = -1; // set of clients is changed, progress isn't comparable anymore
+        return client;
+    }
+
+    synchronized void unregister(Client client) {
+        clients.remove(client);
+        samplePosition = -1;
+    }
+
+    synchronized void onClientRead(Client client, long position) {
+        client.position = position;
+        long max = 0;
+        for (int i = 0; i < clients.size(); i++) {
+            max = Math.max(max, clients.get(i).position);
+        }
+        furthest = max;
+        sampleBitrate();
+        if (pausedReaders > 0) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * Returns {@code true} if byte at position is beyond the window and reader must pause.
+     */
+    synchronized boolean isAhead(long position) {
+        long window = window();
+        return window > 0 && position >= furthest + window;
+    }
+
+    /**
+     * Returns {@code true} if paused reader may continue fetching from position.
+     */
+    synchronized boolean canResume(long position) {
+        long window = window();
+        return window <= 0 || position < furthest + window - window / 4;
+    }
+
+    /**
+     * Returns {@code true} if position is less than {@code distance} bytes ahead of the furthest client.
+     */
+    synchronized boolean isNear(long position, long distance) {
+        return !clients.isEmpty() && position < furthest + distance;
+    }
+
+    synchronized void await(long timeout) throws InterruptedException {
+        pausedReaders++;
+        try {
+            wait(timeout);
+        } finally {
+            pausedReaders--;
+        }
+    }
+
+    private long window() {
+        return seconds > 0 && bitrate > 0 ? seconds * bitrate : maxBytes;
+    }
+
+    private void sampleBitrate() {
+        if (seconds <= 0) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (samplePosition < 0 || furthest < samplePosition) {
+            samplePosition = furthest;
+            sampleTime = now;
+        } else if (now - sampleTime >= BITRATE_SAMPLE_INTERVAL) {
+            long sample = (furthest - samplePosition) * 1000 / (now - sampleTime);
+            bitrate = bitrate == 0 ? sample : (bitrate * 3 + sample) / 4;
+            samplePosition = furthest;
+            sampleTime = now;
+        }
+    }
+
+    static final class Client {
+
+        private long position;
+
+        private Client(long position) {
+            this.position = position;
+        }
+    }
+}
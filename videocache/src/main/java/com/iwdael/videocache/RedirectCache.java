@@ -0,0 +1,74 @@
+package com.iwdael.videocache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers final locations of redirected urls, so sources request resolved location directly
+ * instead of walking redirects on every open.
+ * <p>
+ * Location is forgotten when it expires or when it responds with error (e.g. signed url is expired),
+ * then redirects are followed again.
+ */
+final class RedirectCache {
+
+    /**
+     * Cache shared by all sources.
+     */
+    static final RedirectCache SHARED = new RedirectCache(128, 10 * 60 * 1000);
+
+    private final long ttl;
+    private final Map<String, Location> locations;
+
+    /**
+     * @param maxEntries max count of remembered urls, least recently used ones are forgotten first.
+     * @param ttl        time in milliseconds location is kept.
+     */
+    RedirectCache(final int maxEntries, long ttl) {
+        this.ttl = ttl;
+        this.locations = new LinkedHashMap<String, Location>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Location> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Returns final location of url or {@code null} if it isn't known.
+     */
+    synchronized String get(String url) {
+        Location location = locations.get(url);
+        if (location == null) {
+            return null;
+        }
+        if (location.expiresAt <= System.currentTimeMillis()) {
+            locations.remove(url);
+            return null;
+        }
+        return location.url;
+    }
+
+    synchronized void put(String url, String location) {
+        if (url.equals(location)) {
+            locations.remove(url);
+        } else {
+            locations.put(url, new Location(location, System.currentTimeMillis() + ttl));
+        }
+    }
+
+    synchronized void invalidate(String url) {
+        locations.remove(url);
+    }
+
+    private static final class Location {
+
+        final String url;
+        final long expiresAt;
+
+        Location(String url, long expiresAt) {
+            this.url = url;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.iwdael.videocache;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import static com.iwdael.videocache.Preconditions.checkArgument;
+
+/**
+ * Rules for retrying failed reading from origin.
+ * <p>
+ * Failed source reader reopens source at the last cached byte after exponential backoff with random jitter.
+ * Clients get an error only when count of failures in a row (without any byte read in between) exceeds error budget of url.
+ */
+public final class RetryPolicy {
+
+    /**
+     * Policy used by default: 5 failures per url, backoff from 500 ms up to 8 seconds with 20% jitter.
+     */
+    public static final RetryPolicy DEFAULT = new RetryPolicy(5, 500, 8000, 0.2f);
+
+    /**
+     * Policy without retries: first failure is reported to clients.
+     */
+    public static final RetryPolicy NONE = new RetryPolicy(0, 0, 0, 0);
+
+    final int errorBudget;
+    final long initialBackoff;
+    final long maxBackoff;
+    final float jitter;
+
+    /**
+     * @param errorBudget    max count of failed attempts in a row for single url.
+     * @param initialBackoff delay in milliseconds before first retry, it is doubled for every next one.
+     * @param maxBackoff     max delay in milliseconds between retries.
+     * @param jitter         part of delay (from {@code 0} to {@code 1}) randomly added or subtracted,
+     *                       so readers failed at the same moment don't hit origin simultaneously.
+     */
+    public RetryPolicy(int errorBudget, long initialBackoff, long maxBackoff, float jitter) {
+        checkArgument(errorBudget >= 0, "Error budget can't be negative!");
+        checkArgument(initialBackoff >= 0 && maxBackoff >= initialBackoff, "Invalid backoff range!");
+        checkArgument(jitter >= 0 && jitter <= 1, "Jitter must be in range [0, 1]!");
+        this.errorBudget = errorBudget;
+        this.initialBackoff = initialBackoff;
+        this.maxBackoff = maxBackoff;
+        this.jitter = jitter;
+    }
+
+    /**
+     * Returns delay in milliseconds before retry.
+     *
+     * @param attempt number of failure in a row, starting from 1.
+     */
+    long backoff(int attempt) {
+        long delay = initialBackoff << Math.min(attempt - 1, 30);
+        delay = delay < 0 || delay > maxBackoff ? maxBackoff : delay;
+        long spread = (long) (delay * jitter);
+        return spread > 0 ? delay - spread + ThreadLocalRandom.current().nextLong(2 * spread + 1) : delay;
+    }
+
+    @Override
+    public String toString() {
+        return "RetryPolicy{" +
+                "errorBudget=" + errorBudget +
+                ", backoff=" + initialBackoff + ".." + maxBackoff +
+                ", jitter=" + jitter +
+                '}';
+    }
+}
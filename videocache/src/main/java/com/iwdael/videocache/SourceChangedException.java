@@ -0,0 +1,12 @@
+package com.iwdael.videocache;
+
+/**
+ * Indicates that resource of source is changed since it was cached: validators ({@code ETag}, {@code Last-Modified})
+ * or length of response differ from stored ones, so cached bytes can't be combined with new ones.
+ */
+public class SourceChangedException extends ProxyCacheException {
+
+    public SourceChangedException(String message) {
+        super(message);
+    }
+}
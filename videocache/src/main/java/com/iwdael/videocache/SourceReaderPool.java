@@ -0,0 +1,170 @@
+package com.iwdael.videocache;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+import static com.iwdael.videocache.Preconditions.checkArgument;
+import static com.iwdael.videocache.Preconditions.checkNotNull;
+
+/**
+ * Source readers of all urls served by {@link HttpProxyCacheServer}.
+ * <p>
+ * Count of readers running at the same time (and so count of origin connections) is limited.
+ * Readers that don't fit the limit wait in queue, queue is served round-robin by owner (url),
+ * so url with many readers can't starve others. Long reader is expected to give up its slot
+ * when {@link #shouldYield(Object, long)} says that readers of other urls are waiting.
+ */
+final class SourceReaderPool {
+
+    static final long TIME_SLICE = 3000;
+
+    private final ExecutorService executor;
+    private final int maxReaders;
+    private final Map<Object, Queue<FutureTask<?>>> queues = new LinkedHashMap<>();
+    private int runningReaders;
+    private int queuedReaders;
+
+    /**
+     * @param executor   executor running readers.
+     * @param maxReaders max count of readers running at the same time.
+     */
+    SourceReaderPool(ExecutorService executor, int maxReaders) {
+        checkArgument(maxReaders > 0, "Max readers count must be positive!");
+        this.executor = checkNotNull(executor);
+        this.maxReaders = maxReaders;
+    }
+
+    /**
+     * Runs reader as soon as there is free slot.
+     *
+     * @param owner object readers are grouped by for fair queueing, typically proxy of single url.
+     * @return future that can be used for cancelling reader, either queued or running.
+     * @throws RejectedExecutionException if executor doesn't accept tasks anymore.
+     */
+    synchronized Future<?> submit(Object owner, Runnable reader) {
+        FutureTask<?> task = new ReaderTask(owner, reader);
+        Queue<FutureTask<?>> queue = queues.get(owner);
+        if (queue == null) {
+            queue = new ArrayDeque<>();
+            queues.put(owner, queue);
+        }
+        queue.add(task);
+        queuedReaders++;
+        dispatch();
+        return task;
+    }
+
+    /**
+     * Returns {@code true} if reader of passed owner running since {@code startedAt} used its time slice
+     * and readers of other owners are waiting for slot.
+     */
+    synchronized boolean shouldYield(Object owner, long startedAt) {
+        if (System.currentTimeMillis() - startedAt < TIME_SLICE) {
+            return false;
+        }
+        for (Map.Entry<Object, Queue<FutureTask<?>>> entry : queues.entrySet()) {
+            if (entry.getKey() != owner && !entry.getValue().isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void dispatch() {
+        while (runningReaders < maxReaders && queuedReaders > 0) {
+            FutureTask<?> task = pollNext();
+            if (task.isCancelled()) {
+                continue;
+            }
+            runningReaders++;
+            try {
+                executor.execute(new SlotRunnable(task));
+            } catch (RejectedExecutionException e) {
+                runningReaders--;
+                task.cancel(false);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Takes task of the first owner in queue and moves owner to the end, so owners are served in turn.
+     */
+    private FutureTask<?> pollNext() {
+        Iterator<Map.Entry<Object, Queue<FutureTask<?>>>> iterator = queues.entrySet().iterator();
+        Map.Entry<Object, Queue<FutureTask<?>>> first = iterator.next();
+        iterator.remove();
+        FutureTask<?> task = first.getValue().poll();
+        queuedReaders--;
+        if (!first.getValue().isEmpty()) {
+            queues.put(first.getKey(), first.getValue());
+        }
+        return task;
+    }
+
+    /**
+     * Drops cancelled reader from queue, so it doesn't make readers of other owners yield.
+     */
+    private synchronized void onReaderCancelled(Object owner, FutureTask<?> task) {
+        Queue<FutureTask<?>> queue = queues.get(owner);
+        if (queue != null && queue.remove(task)) {
+            queuedReaders--;
+            if (queue.isEmpty()) {
+                queues.remove(owner);
+            }
+        }
+    }
+
+    private synchronized void onReaderFinished() {
+        runningReaders--;
+        dispatch();
+    }
+
+    private final class ReaderTask extends FutureTask<Void> {
+
+        private final Object owner;
+
+        ReaderTask(Object owner, Runnable reader) {
+            super(reader, null);
+            this.owner = owner;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            if (cancelled) {
+                onReaderCancelled(owner, this);
+            }
+            return cancelled;
+        }
+    }
+
+    private final class SlotRunnable implements Runnable {
+
+        private final FutureTask<?> task;
+
+        SlotRunnable(FutureTask<?> task) {
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            try {
+                task.run();
+            } finally {
+                try {
+                    onReaderFinished();
+                } catch (RejectedExecutionException e) {
+                    // executor is shut down, queued readers will never run
+                }
+            }
+        }
+    }
+}
@@ -1,14 +1,33 @@
 package com.iwdael.videocache;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import java.util.Map;
 
+/**
+ * {@link Source} created by {@link SourceCreator} of config, with info kept in {@link Storage}.
+ * <p>
+ * If info isn't stored yet, it is taken from the first data response: source is opened instead of separate
+ * info request and stays open, so reading from the same offset doesn't make another request.
+ * <p>
+ * Stored validators are sent in {@code If-Range} header when download is resumed, so unchanged resource is
+ * still fetched by cheap range request. Response with other validators means cached bytes are stale,
+ * {@link SourceChangedException} is thrown then, new info is stored by {@link #acceptChangedInfo()} after stale data is dropped.
+ */
 public class SourceWrapper implements Source {
+
+    private static final Logger LOG = LoggerFactory.getLogger("SourceWrapper");
+
     private Source source;
     private final String url;
     private final Map<String, String> headers;
     private final Config config;
-    private CacheInfo info;
-    private long pointer = 0;
+    private volatile CacheInfo info;
+    /**
+     * Position of opened source or {@code -1} if source isn't opened.
+     */
+    private long pointer = -1;
 
     public SourceWrapper(String url, Map<String, String> headers, Config config) {
         this.url = url;
@@ -22,20 +41,28 @@ public class SourceWrapper implements Source {
 
     private void init() {
         if (source == null) {
-            synchronized (SourceWrapper.class) {
+            synchronized (this) {
                 if (source == null)
                     source = config.sourceCreator.create(url, headers);
             }
         }
     }
 
-    private void fetchInfo() {
+    /**
+     * Makes info known, opening source at offset if info isn't stored.
+     *
+     * @param offset position of the first byte client is going to read.
+     */
+    public void fetchInfo(long offset) {
         if (info == null) {
-            synchronized (SourceWrapper.class) {
+            synchronized (this) {
                 if (info == null) info = config.storage.getInfo(url);
                 if (info == null) {
-                    init();
-                    saveInfo();
+                    try {
+                        open(offset);
+                    } catch (ProxyCacheException e) {
+                        LOG.warn("Error fetching info of " + url + ": " + e.getMessage());
+                    }
                 }
             }
         }
@@ -43,7 +70,10 @@ public class SourceWrapper implements Source {
 
     private void saveInfo() {
         try {
-            CacheInfo si = new CacheInfo(url, source.length(), source.getMime());
+            CacheInfo responseInfo = source instanceof InfoSource ? ((InfoSource) source).getInfo() : null;
+            CacheInfo si = responseInfo != null
+                    ? new CacheInfo(url, responseInfo.length, responseInfo.mime, responseInfo.etag, responseInfo.lastModified)
+                    : new CacheInfo(url, source.length(), source.getMime());
             config.storage.putInfo(url, si);
             info = si;
         } catch (Exception e) {
@@ -51,17 +81,66 @@ public class SourceWrapper implements Source {
     }
 
     @Override
-    public void open(long offset) throws ProxyCacheException {
+    public synchronized void open(long offset) throws ProxyCacheException {
         init();
         if (offset == pointer) return;
-        saveInfo();
-        source.open(offset);
+        if (pointer != -1) source.close(); // connection opened for other offset isn't needed anymore
+        pointer = -1;
+        if (info == null) info = config.storage.getInfo(url);
+        CacheInfo cached = info;
+        String validator = validator(cached, offset);
+        if (validator != null && source instanceof InfoSource) {
+            ((InfoSource) source).open(offset, validator);
+        } else {
+            source.open(offset); // source without info can't report change anyway
+        }
         pointer = offset;
+        CacheInfo responseInfo = source instanceof InfoSource ? ((InfoSource) source).getInfo() : null;
+        if (cached != null && responseInfo != null && isChanged(cached, responseInfo)) {
+            LOG.warn("Source " + url + " is changed: " + cached + " is cached, but " + responseInfo + " is received");
+            close();
+            throw new SourceChangedException("Source " + url + " is changed since it was cached");
+        }
+        saveInfo();
+    }
+
+    /**
+     * Stores info of changed resource received by the last open. Called after stale cached data is dropped,
+     * so new validators are never stored together with old data.
+     */
+    void acceptChangedInfo() {
+        saveInfo();
+    }
+
+    /**
+     * Returns {@code If-Range} value asking source to send range only if resource isn't changed, otherwise whole
+     * new resource is sent. Weak {@code ETag} can't be used for range, so {@code Last-Modified} is sent instead of it.
+     *
+     * @return validator or {@code null} if range is requested unconditionally.
+     */
+    private static String validator(CacheInfo cached, long offset) {
+        if (cached == null || offset <= 0) {
+            return null;
+        }
+        if (cached.etag != null && !cached.etag.startsWith("W/")) {
+            return cached.etag;
+        }
+        return cached.lastModified;
+    }
+
+    private static boolean isChanged(CacheInfo cached, CacheInfo response) {
+        if (cached.etag != null && response.etag != null) {
+            return !cached.etag.equals(response.etag);
+        }
+        if (cached.lastModified != null && response.lastModified != null) {
+            return !cached.lastModified.equals(response.lastModified);
+        }
+        return cached.length >= 0 && response.length >= 0 && cached.length != response.length;
     }
 
     @Override
     public long length() throws ProxyCacheException {
-        fetchInfo();
+        fetchInfo(0);
         return info == null ? -1 : info.length;
     }
 
@@ -69,18 +148,19 @@ public class SourceWrapper implements Source {
     public int read(byte[] buffer) throws ProxyCacheException {
         init();
         int r = source.read(buffer);
-        pointer += r;
+        if (r > 0) pointer += r;
         return r;
     }
 
     @Override
-    public void close() throws ProxyCacheException {
+    public synchronized void close() throws ProxyCacheException {
+        pointer = -1;
         if (source != null) source.close();
     }
 
     @Override
     public String getMime() throws ProxyCacheException {
-        fetchInfo();
+        fetchInfo(0);
         return info == null ? "" : info.mime;
     }
 
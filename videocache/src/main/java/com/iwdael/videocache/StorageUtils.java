@@ -97,7 +97,7 @@ public final class StorageUtils {
     private static List<CachePatch> complementaryPatch(CachePatch external, List<CachePatch> sub) throws ProxyCacheException {
         List<CachePatch> subset = sub
                 .stream()
-                .filter(patch -> (external.start <= patch.start && patch.start <= external.end) || (external.start <= patch.end && patch.end <= external.end))
+                .filter(patch -> patch.start <= external.end && external.start <= patch.end) // includes patches covering whole range
                 .collect(Collectors.toList());
         List<Long> keys = Stream.concat(subset.stream(), Stream.of(external))
                 .flatMap((Function<CachePatch, Stream<Long>>) patch -> Stream.of(patch.start, patch.end))
@@ -122,12 +122,11 @@ public final class StorageUtils {
                 .collect(Collectors.toList());
         if (sorted.isEmpty()) return false;
         if (sorted.get(0).start != 0) return false;
-        if (sorted.get(sorted.size() - 1).end != len) return false;
-        for (int i = 0; i < sorted.size() - 1; i++) {
-            CachePatch cur = sorted.get(i);
-            CachePatch next = sorted.get(i + 1);
-            if (cur.end < next.start) return false;
+        long covered = 0; // patches may overlap, so coverage is tracked by max end
+        for (CachePatch patch : sorted) {
+            if (patch.start > covered) return false;
+            covered = Math.max(covered, patch.end);
         }
-        return true;
+        return covered >= len;
     }
 }
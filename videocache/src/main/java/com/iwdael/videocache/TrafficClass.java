@@ -0,0 +1,36 @@
+package com.iwdael.videocache;
+
+/**
+ * Kind of origin traffic, used by bandwidth limits set in {@link HttpProxyCacheServer.Builder}.
+ * <p>
+ * {@link #PLAYING} and {@link #SEEKING} are foreground classes: when total bandwidth is limited,
+ * background classes get only bandwidth not requested by foreground readers.
+ */
+public enum TrafficClass {
+
+    /**
+     * Data fetched ahead of player that is playing, i.e. playback buffer.
+     */
+    PLAYING(true),
+
+    /**
+     * Data player is waiting for right now, e.g. after start or seek.
+     */
+    SEEKING(true),
+
+    /**
+     * Data fetched by {@link HttpProxyCacheServer#preload(String, long, int)}.
+     */
+    PRELOAD(false),
+
+    /**
+     * Data fetched far ahead of players or left after seek, needed only to complete cache file.
+     */
+    FULL_CACHE(false);
+
+    final boolean foreground;
+
+    TrafficClass(boolean foreground) {
+        this.foreground = foreground;
+    }
+}
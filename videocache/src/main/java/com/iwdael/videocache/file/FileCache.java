@@ -8,6 +8,9 @@ import com.iwdael.videocache.StorageUtils;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -20,6 +23,16 @@ public class FileCache implements Cache {
     public static final String TAG = "cache";
     private static final String TEMP_POSTFIX = ".download";
 
+    /**
+     * Returns directory for files evicted from cache together, e.g. segments of HLS playlist.
+     *
+     * @param cacheRoot root directory of cache.
+     * @param name      name of group, e.g. name generated for playlist's url.
+     */
+    public static File groupDirectory(File cacheRoot, String name) {
+        return new File(cacheRoot, name + Files.GROUP_POSTFIX);
+    }
+
     private final DiskUsage diskUsage;
     private final Config config;
     private final String key;
@@ -86,15 +99,31 @@ public class FileCache implements Cache {
     }
 
     @Override
-    public synchronized void close() throws ProxyCacheException {
+    public long transferTo(long pointer, long count, WritableByteChannel target) throws ProxyCacheException {
+        // positional transfer doesn't touch file pointer used by read/write, so it is done without lock:
+        // writing slow socket must not block source reader
+        FileChannel channel = getDataChannel();
         try {
-            if (!patches.isEmpty()) {
-                CachePatch last = patches.get(patches.size() - 1);
-                if (!last.isLocal) {
-                    config.storage.putPatch(key, last);
-                    last.isLocal = true;
-                }
+            return channel.transferTo(pointer, count, target);
+        } catch (ClosedChannelException e) {
+            if (channel == getDataChannel()) {
+                throw new ProxyCacheException("Error transferring data from closed file " + file, e);
             }
+            return 0; // file is reopened by completion, caller may retry
+        } catch (IOException e) {
+            String format = "Error transferring %d bytes with offset %d from file %s";
+            throw new ProxyCacheException(String.format(format, count, pointer, file), e);
+        }
+    }
+
+    private synchronized FileChannel getDataChannel() {
+        return dataFile.getChannel();
+    }
+
+    @Override
+    public synchronized void close() throws ProxyCacheException {
+        try {
+            persistPatches();
             dataFile.close();
             diskUsage.touch(file);
         } catch (IOException e) {
@@ -129,23 +158,68 @@ public class FileCache implements Cache {
         return !isTempFile(file);
     }
 
+    @Override
+    public synchronized void clear() throws ProxyCacheException {
+        if (isCompleted()) {
+            throw new ProxyCacheException("Error clearing cache: cache file " + file + " is completed!");
+        }
+        try {
+            dataFile.setLength(0);
+        } catch (IOException e) {
+            throw new ProxyCacheException("Error truncating file " + file, e);
+        }
+        patches.clear();
+        config.storage.clearPatch(key);
+    }
+
 
+    /**
+     * Adds written range. Range is merged with adjacent patches, so several writers filling
+     * different parts of file concurrently keep one growing patch each instead of patch per write.
+     */
     @Override
     public synchronized void putPatch(long start, long end) {
-        if (patches.isEmpty()) {
-            patches.add(new CachePatch(key, start, end));
-        } else {
-            CachePatch last = patches.get(patches.size() - 1);
-            if (last.end == start) {
-                last.end = end;
-            } else {
-                if (!last.isLocal) {
-                    config.storage.putPatch(key, last);
-                    last.isLocal = true;
-                }
-                patches.add(new CachePatch(key, start, end));
+        CachePatch preceding = null;
+        CachePatch following = null;
+        for (CachePatch patch : patches) {
+            if (patch.end == start) {
+                preceding = patch;
+            } else if (patch.start == end) {
+                following = patch;
             }
         }
+        if (preceding != null && following != null) {
+            preceding.end = following.end;
+            preceding.isLocal = false;
+            patches.remove(following);
+        } else if (preceding != null) {
+            preceding.end = end;
+            preceding.isLocal = false;
+        } else if (following != null) {
+            following.start = start;
+            following.isLocal = false;
+        } else {
+            persistPatches(); // new patch means some writer is moved to other range, good point for saving progress
+            patches.add(new CachePatch(key, start, end));
+        }
+    }
+
+    /**
+     * Rewrites stored patches if some of them are changed since last saving.
+     */
+    private void persistPatches() {
+        boolean changed = false;
+        for (CachePatch patch : patches) {
+            changed |= !patch.isLocal;
+        }
+        if (!changed) {
+            return;
+        }
+        config.storage.clearPatch(key);
+        for (CachePatch patch : patches) {
+            config.storage.putPatch(key, patch);
+            patch.isLocal = true;
+        }
     }
 
     @Override
@@ -21,6 +21,7 @@ import java.util.List;
 class Files {
 
     private static final Logger LOG = LoggerFactory.getLogger("Files");
+    static final String GROUP_POSTFIX = ".group";
 
     static void makeDir(File directory) throws IOException {
         if (directory.exists()) {
@@ -45,7 +46,48 @@ class Files {
         return result;
     }
 
+    /**
+     * Returns {@code true} if file is directory holding files evicted together, e.g. segments of HLS playlist.
+     */
+    static boolean isGroup(File file) {
+        return file.isDirectory() && file.getName().endsWith(GROUP_POSTFIX);
+    }
+
+    /**
+     * Returns size of file or total size of files in group.
+     */
+    static long size(File file) {
+        if (!file.isDirectory()) {
+            return file.length();
+        }
+        long size = 0;
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                size += size(child);
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Deletes file or group with all its files.
+     */
+    static boolean delete(File file) {
+        File[] files = file.isDirectory() ? file.listFiles() : null;
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+        return file.delete();
+    }
+
     static void setLastModifiedNow(File file) throws IOException {
+        if (file.isDirectory()) {
+            file.setLastModified(System.currentTimeMillis()); // best effort, content of directory isn't modified
+            return;
+        }
         if (file.exists()) {
             long now = System.currentTimeMillis();
             boolean modified = file.setLastModified(now); // on some devices (e.g. Nexus 5) doesn't work
@@ -27,7 +27,12 @@ public abstract class LruDiskUsage implements DiskUsage {
 
     private void touchInBackground(File file) throws IOException {
         Files.setLastModifiedNow(file);
-        List<File> files = Files.getLruListFiles(file.getParentFile());
+        File directory = file.getParentFile();
+        if (Files.isGroup(directory)) { // group is used and evicted as single file
+            Files.setLastModifiedNow(directory);
+            directory = directory.getParentFile();
+        }
+        List<File> files = Files.getLruListFiles(directory);
         trim(files);
     }
 
@@ -39,8 +44,8 @@ public abstract class LruDiskUsage implements DiskUsage {
         for (File file : files) {
             boolean accepted = accept(file, totalSize, totalCount);
             if (!accepted) {
-                long fileSize = file.length();
-                boolean deleted = file.delete();
+                long fileSize = Files.size(file);
+                boolean deleted = Files.delete(file);
                 if (deleted) {
                     totalCount--;
                     totalSize -= fileSize;
@@ -55,7 +60,7 @@ public abstract class LruDiskUsage implements DiskUsage {
     private long countTotalSize(List<File> files) {
         long totalSize = 0;
         for (File file : files) {
-            totalSize += file.length();
+            totalSize += Files.size(file);
         }
         return totalSize;
     }
@@ -28,16 +28,20 @@ class DataStorage extends SQLiteOpenHelper implements Storage {
     private static final String COLUMN_URL = "COL_URL";
     private static final String COLUMN_LENGTH = "COL_LENGTH";
     private static final String COLUMN_MIME = "COL_MIME";
+    private static final String COLUMN_ETAG = "COL_ETAG";
+    private static final String COLUMN_LAST_MODIFIED = "COL_LAST_MODIFIED";
     private static final String COLUMN_START = "COL_START";
     private static final String COLUMN_END = "COL_END";
-    private static final String[] ALL_INFO_COLUMNS = new String[]{COLUMN_ID, COLUMN_URL, COLUMN_LENGTH, COLUMN_MIME};
+    private static final String[] ALL_INFO_COLUMNS = new String[]{COLUMN_ID, COLUMN_URL, COLUMN_LENGTH, COLUMN_MIME, COLUMN_ETAG, COLUMN_LAST_MODIFIED};
     private static final String[] ALL_PATCH_COLUMNS = new String[]{COLUMN_ID, COLUMN_URL, COLUMN_START, COLUMN_END};
     private static final String CREATE_INFO_SQL =
             "CREATE TABLE " + TABLE_INFO + " (" +
                     COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL," +
                     COLUMN_URL + " TEXT NOT NULL," +
                     COLUMN_MIME + " TEXT," +
-                    COLUMN_LENGTH + " INTEGER" +
+                    COLUMN_LENGTH + " INTEGER," +
+                    COLUMN_ETAG + " TEXT," +
+                    COLUMN_LAST_MODIFIED + " TEXT" +
                     ");";
 
     private static final String CREATE_PATCH_SQL =
@@ -49,7 +53,7 @@ class DataStorage extends SQLiteOpenHelper implements Storage {
                     ");";
 
     DataStorage(Context context) {
-        super(context, "ProxyCache.db", null, 1);
+        super(context, "ProxyCache.db", null, 2);
         checkNotNull(context);
     }
 
@@ -62,7 +66,11 @@ class DataStorage extends SQLiteOpenHelper implements Storage {
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        throw new IllegalStateException("Should not be called. There is no any migration");
+        checkNotNull(db);
+        if (oldVersion < 2) { // validators of cached resource
+            db.execSQL("ALTER TABLE " + TABLE_INFO + " ADD COLUMN " + COLUMN_ETAG + " TEXT");
+            db.execSQL("ALTER TABLE " + TABLE_INFO + " ADD COLUMN " + COLUMN_LAST_MODIFIED + " TEXT");
+        }
     }
 
     @Override
@@ -141,7 +149,9 @@ class DataStorage extends SQLiteOpenHelper implements Storage {
         return new CacheInfo(
                 cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_URL)),
                 cursor.getLong(cursor.getColumnIndexOrThrow(COLUMN_LENGTH)),
-                cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_MIME))
+                cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_MIME)),
+                cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_ETAG)),
+                cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_LAST_MODIFIED))
         );
     }
 
@@ -150,6 +160,8 @@ class DataStorage extends SQLiteOpenHelper implements Storage {
         values.put(COLUMN_URL, cacheInfo.url);
         values.put(COLUMN_LENGTH, cacheInfo.length);
         values.put(COLUMN_MIME, cacheInfo.mime);
+        values.put(COLUMN_ETAG, cacheInfo.etag);
+        values.put(COLUMN_LAST_MODIFIED, cacheInfo.lastModified);
         return values;
     }
 
@@ -0,0 +1,91 @@
+package com.iwdael.videocache;
+
+import org.junit.Test;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertTrue;
+
+public class BandwidthManagerTest {
+
+    private static final int CHUNK = 8 * 1024;
+    private static final long RATE = 100 * 1024;
+
+    @Test
+    public void testUnlimited() throws Exception {
+        long duration = consume(BandwidthManager.UNLIMITED, TrafficClass.PLAYING, 1000);
+        assertTrue("Unlimited reads took " + duration + " ms", duration < 500);
+    }
+
+    @Test
+    public void testGlobalRate() throws Exception {
+        BandwidthManager bandwidth = new BandwidthManager(RATE, new EnumMap<TrafficClass, Long>(TrafficClass.class));
+        long duration = consume(bandwidth, TrafficClass.PLAYING, 25); // 200 KB at 100 KB/s, quarter of second is burst
+        assertTrue("200 KB at 100 KB/s are read in " + duration + " ms", duration > 1200 && duration < 4000);
+    }
+
+    @Test
+    public void testClassRateDoesNotLimitOtherClasses() throws Exception {
+        Map<TrafficClass, Long> classRates = new EnumMap<>(TrafficClass.class);
+        classRates.put(TrafficClass.PRELOAD, RATE);
+        BandwidthManager bandwidth = new BandwidthManager(0, classRates);
+
+        long unlimited = consume(bandwidth, TrafficClass.PLAYING, 1000);
+        assertTrue("Unlimited class took " + unlimited + " ms", unlimited < 500);
+        long limited = consume(bandwidth, TrafficClass.PRELOAD, 25);
+        assertTrue("Limited class took " + limited + " ms", limited > 1200);
+    }
+
+    @Test
+    public void testBackgroundYieldsToForeground() throws Exception {
+        final BandwidthManager bandwidth = new BandwidthManager(RATE, new EnumMap<TrafficClass, Long>(TrafficClass.class));
+        final long deadline = System.currentTimeMillis() + 2000;
+        final AtomicLong foreground = new AtomicLong();
+        final AtomicLong background = new AtomicLong();
+        Thread foregroundReader = new Thread(new ConsumingRunnable(bandwidth, TrafficClass.PLAYING, deadline, foreground));
+        Thread backgroundReader = new Thread(new ConsumingRunnable(bandwidth, TrafficClass.FULL_CACHE, deadline, background));
+        foregroundReader.start();
+        backgroundReader.start();
+        foregroundReader.join();
+        backgroundReader.join();
+
+        assertTrue("Foreground read " + foreground + " bytes, background " + background, foreground.get() > 2 * background.get());
+    }
+
+    private static long consume(BandwidthManager bandwidth, TrafficClass trafficClass, int chunks) throws InterruptedException {
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < chunks; i++) {
+            bandwidth.consume(trafficClass, CHUNK);
+        }
+        return System.currentTimeMillis() - start;
+    }
+
+    private static final class ConsumingRunnable implements Runnable {
+
+        private final BandwidthManager bandwidth;
+        private final TrafficClass trafficClass;
+        private final long deadline;
+        private final AtomicLong consumed;
+
+        ConsumingRunnable(BandwidthManager bandwidth, TrafficClass trafficClass, long deadline, AtomicLong consumed) {
+            this.bandwidth = bandwidth;
+            this.trafficClass = trafficClass;
+            this.deadline = deadline;
+            this.consumed = consumed;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (System.currentTimeMillis() < deadline) {
+                    bandwidth.consume(trafficClass, CHUNK);
+                    consumed.addAndGet(CHUNK);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.iwdael.videocache;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class FetchSchedulerTest {
+
+    private static final long MB = 1024 * 1024;
+    private static final long LENGTH = 10 * MB;
+
+    @Test
+    public void testSingleReaderGetsWholeMissingRange() {
+        FetchScheduler scheduler = new FetchScheduler(new RangeCache(LENGTH));
+        scheduler.demand(0, LENGTH, true);
+        assertSegment(0, LENGTH, scheduler.next());
+        assertFalse(scheduler.isIdle());
+    }
+
+    @Test
+    public void testCachedRangeIsSkipped() {
+        RangeCache cache = new RangeCache(LENGTH);
+        cache.cache(0, 4 * MB);
+        FetchScheduler scheduler = new FetchScheduler(cache);
+        scheduler.demand(MB, LENGTH, true);
+        assertSegment(4 * MB, LENGTH, scheduler.next());
+    }
+
+    @Test
+    public void testSecondReaderTakesHalfOfLargestSegment() {
+        FetchScheduler scheduler = new FetchScheduler(new RangeCache(LENGTH));
+        scheduler.demand(0, LENGTH, true);
+        FetchScheduler.Segment first = scheduler.next();
+        FetchScheduler.Segment second = scheduler.next();
+        assertSegment(5 * MB, LENGTH, second);
+        assertEquals(5 * MB, first.end);
+    }
+
+    @Test
+    public void testSmallSegmentIsNotSplit() {
+        FetchScheduler scheduler = new FetchScheduler(new RangeCache(LENGTH));
+        scheduler.demand(0, 2 * FetchScheduler.MIN_SEGMENT_SIZE - 1, true);
+        scheduler.next();
+        assertNull(scheduler.next());
+    }
+
+    @Test
+    public void testNearDemandDoesNotCutSegment() {
+        FetchScheduler scheduler = new FetchScheduler(new RangeCache(LENGTH));
+        scheduler.demand(0, LENGTH, true);
+        FetchScheduler.Segment segment = scheduler.next();
+        scheduler.demand(FetchScheduler.MAX_DEMAND_DISTANCE, LENGTH, true);
+        assertEquals(LENGTH, segment.end);
+    }
+
+    @Test
+    public void testSeekCutsSegmentAtDemand() {
+        FetchScheduler scheduler = new FetchScheduler(new RangeCache(LENGTH));
+        scheduler.demand(0, LENGTH, true);
+        FetchScheduler.Segment segment = scheduler.next();
+        scheduler.demand(8 * MB, LENGTH, true);
+        assertEquals(8 * MB, segment.end);
+        assertSegment(8 * MB, LENGTH, scheduler.next());
+    }
+
+    @Test
+    public void testSeekPreemptsReaderAndAbandonedRangeIsFetchedLater() {
+        RangeCache cache = new RangeCache(LENGTH);
+        FetchScheduler scheduler = new FetchScheduler(cache);
+        scheduler.demand(0, LENGTH, true);
+        FetchScheduler.Segment first = scheduler.next();
+        first.position = MB;
+        cache.cache(0, MB);
+
+        scheduler.demand(8 * MB, LENGTH, false);
+        assertEquals(MB, first.end); // reader stops after chunk being read and takes new demand
+        scheduler.finish(first);
+        FetchScheduler.Segment demanded = scheduler.next();
+        assertSegment(8 * MB, LENGTH, demanded);
+        assertFalse(demanded.abandoned);
+
+        demanded.position = LENGTH;
+        cache.cache(8 * MB, LENGTH);
+        scheduler.finish(demanded);
+        FetchScheduler.Segment abandoned = scheduler.next();
+        assertSegment(MB, 8 * MB, abandoned);
+        assertTrue(abandoned.abandoned);
+    }
+
+    @Test
+    public void testUrgentRangeIsFetchedInParallel() {
+        FetchScheduler scheduler = new FetchScheduler(new RangeCache(LENGTH));
+        scheduler.demand(0, LENGTH, true);
+        FetchScheduler.Segment head = scheduler.next();
+        FetchScheduler.Segment tail = scheduler.claimUrgent(9 * MB, LENGTH);
+        assertSegment(9 * MB, LENGTH, tail);
+        assertEquals(9 * MB, head.end);
+        assertNull(scheduler.claimUrgent(9 * MB, LENGTH)); // already being fetched
+    }
+
+    @Test
+    public void testNothingToFetchWhenCached() {
+        RangeCache cache = new RangeCache(LENGTH);
+        cache.cache(0, LENGTH);
+        FetchScheduler scheduler = new FetchScheduler(cache);
+        scheduler.demand(0, LENGTH, true);
+        assertNull(scheduler.next());
+        assertTrue(scheduler.isIdle());
+    }
+
+    private static void assertSegment(long start, long end, FetchScheduler.Segment segment) {
+        assertEquals(start, segment.start);
+        assertEquals(end, segment.end);
+        assertEquals(start, segment.position);
+    }
+}
@@ -0,0 +1,135 @@
+package com.iwdael.videocache;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HlsPlaylistTest {
+
+    private static final String URL = "http://example.com/video/index.m3u8";
+
+    @Test
+    public void testIsPlaylistUrl() {
+        assertTrue(HlsPlaylist.isPlaylistUrl(URL));
+        assertTrue(HlsPlaylist.isPlaylistUrl("http://example.com/INDEX.M3U8?token=1"));
+        assertTrue(HlsPlaylist.isPlaylistUrl("http://example.com/index.m3u8#start"));
+        assertFalse(HlsPlaylist.isPlaylistUrl("http://example.com/video.mp4?list=index.m3u8"));
+        assertFalse(HlsPlaylist.isPlaylistUrl("http://example.com/index.m3u8.ts"));
+    }
+
+    @Test
+    public void testMediaPlaylist() throws Exception {
+        HlsPlaylist playlist = HlsPlaylist.parse(URL, "#EXTM3U\r\n" +
+                "#EXT-X-TARGETDURATION:10\r\n" +
+                "#EXTINF:10,\r\n" +
+                "0.ts\r\n" +
+                "#EXTINF:10,\r\n" +
+                "/other/1.ts\r\n" +
+                "#EXTINF:10,\r\n" +
+                "http://cdn.example.com/2.ts\r\n" +
+                "#EXT-X-ENDLIST\r\n");
+        assertFalse(playlist.isMaster());
+        assertTrue(playlist.isEnded());
+        List<HlsPlaylist.Segment> segments = playlist.segments();
+        assertEquals(3, segments.size());
+        assertSegment("http://example.com/video/0.ts", 0, -1, segments.get(0));
+        assertSegment("http://example.com/other/1.ts", 0, -1, segments.get(1));
+        assertSegment("http://cdn.example.com/2.ts", 0, -1, segments.get(2));
+    }
+
+    @Test
+    public void testLivePlaylistIsNotEnded() throws Exception {
+        HlsPlaylist playlist = HlsPlaylist.parse(URL, "#EXTM3U\n#EXTINF:10,\n0.ts\n");
+        assertFalse(playlist.isEnded());
+    }
+
+    @Test
+    public void testMasterPlaylistHasNoSegments() throws Exception {
+        HlsPlaylist playlist = HlsPlaylist.parse(URL, "#EXTM3U\n" +
+                "#EXT-X-STREAM-INF:BANDWIDTH=1280000\n" +
+                "low/index.m3u8\n" +
+                "#EXT-X-STREAM-INF:BANDWIDTH=2560000\n" +
+                "high/index.m3u8\n");
+        assertTrue(playlist.isMaster());
+        assertTrue(playlist.segments().isEmpty());
+    }
+
+    @Test
+    public void testByteRanges() throws Exception {
+        HlsPlaylist playlist = HlsPlaylist.parse(URL, "#EXTM3U\n" +
+                "#EXTINF:10,\n" +
+                "#EXT-X-BYTERANGE:1000@500\n" +
+                "all.ts\n" +
+                "#EXTINF:10,\n" +
+                "#EXT-X-BYTERANGE:2000\n" +
+                "all.ts\n" +
+                "#EXTINF:10,\n" +
+                "#EXT-X-BYTERANGE:300\n" +
+                "other.ts\n");
+        List<HlsPlaylist.Segment> segments = playlist.segments();
+        assertSegment("http://example.com/video/all.ts", 500, 1000, segments.get(0));
+        assertSegment("http://example.com/video/all.ts", 1500, 2000, segments.get(1));
+        assertSegment("http://example.com/video/other.ts", 0, 300, segments.get(2));
+    }
+
+    @Test(expected = ProxyCacheException.class)
+    public void testInvalidByteRange() throws Exception {
+        HlsPlaylist.parse(URL, "#EXTM3U\n#EXT-X-BYTERANGE:abc\n0.ts\n");
+    }
+
+    @Test(expected = ProxyCacheException.class)
+    public void testMissingHeader() throws Exception {
+        HlsPlaylist.parse(URL, "#EXTINF:10,\n0.ts\n");
+    }
+
+    @Test
+    public void testSegmentMatches() {
+        HlsPlaylist.Segment whole = new HlsPlaylist.Segment("http://example.com/0.ts", 0, -1);
+        assertTrue(whole.matches("http://example.com/0.ts", 12345));
+        assertFalse(whole.matches("http://example.com/1.ts", 0));
+        assertEquals(Long.MAX_VALUE, whole.byteBudget());
+
+        HlsPlaylist.Segment range = new HlsPlaylist.Segment("http://example.com/all.ts", 1000, 500);
+        assertFalse(range.matches("http://example.com/all.ts", 999));
+        assertTrue(range.matches("http://example.com/all.ts", 1000));
+        assertTrue(range.matches("http://example.com/all.ts", 1499));
+        assertFalse(range.matches("http://example.com/all.ts", 1500));
+        assertEquals(1500, range.byteBudget());
+    }
+
+    @Test
+    public void testRewrite() throws Exception {
+        HlsPlaylist playlist = HlsPlaylist.parse(URL, "#EXTM3U\n" +
+                "#EXT-X-KEY:METHOD=AES-128,URI=\"key.bin\",IV=0x1\n" +
+                "#EXT-X-SESSION-KEY:METHOD=SAMPLE-AES,URI=\"skd://key\"\n" +
+                "#EXT-X-MAP:URI=\"init.mp4\"\n" +
+                "#EXTINF:10,\n" +
+                "0.ts\n" +
+                "\n" +
+                "#EXT-X-ENDLIST");
+        String rewritten = playlist.rewrite(new HlsPlaylist.UriRewriter() {
+            @Override
+            public String rewrite(String absoluteUrl) {
+                return "proxy:" + absoluteUrl;
+            }
+        });
+        assertEquals("#EXTM3U\n" +
+                "#EXT-X-KEY:METHOD=AES-128,URI=\"proxy:http://example.com/video/key.bin\",IV=0x1\n" +
+                "#EXT-X-SESSION-KEY:METHOD=SAMPLE-AES,URI=\"skd://key\"\n" +
+                "#EXT-X-MAP:URI=\"proxy:http://example.com/video/init.mp4\"\n" +
+                "#EXTINF:10,\n" +
+                "proxy:http://example.com/video/0.ts\n" +
+                "\n" +
+                "#EXT-X-ENDLIST\n", rewritten);
+    }
+
+    private static void assertSegment(String url, long offset, long length, HlsPlaylist.Segment segment) {
+        assertEquals(url, segment.url);
+        assertEquals(offset, segment.offset);
+        assertEquals(length, segment.length);
+    }
+}
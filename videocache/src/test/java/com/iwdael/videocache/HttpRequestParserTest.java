@@ -0,0 +1,180 @@
+package com.iwdael.videocache;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class HttpRequestParserTest {
+
+    @Test
+    public void testGet() throws Exception {
+        GetRequest request = parse("GET /http%3A%2F%2Fexample.com%2Fvideo.mp4 HTTP/1.1\r\nHost: 127.0.0.1\r\n\r\n");
+        assertEquals("http%3A%2F%2Fexample.com%2Fvideo.mp4", request.uri);
+        assertFalse(request.head);
+        assertFalse(request.partial);
+        assertEquals(0, request.rangeOffset);
+        assertEquals(-1, request.rangeEnd);
+        assertTrue(request.keepAlive);
+    }
+
+    @Test
+    public void testHead() throws Exception {
+        GetRequest request = parse("HEAD /video HTTP/1.1\r\n\r\n");
+        assertTrue(request.head);
+        assertEquals("video", request.uri);
+    }
+
+    @Test
+    public void testOpenRange() throws Exception {
+        GetRequest request = parse("GET /video HTTP/1.1\r\nRange: bytes=100-\r\n\r\n");
+        assertTrue(request.partial);
+        assertEquals(100, request.rangeOffset);
+        assertEquals(-1, request.rangeEnd);
+    }
+
+    @Test
+    public void testClosedRange() throws Exception {
+        GetRequest request = parse("GET /video HTTP/1.1\r\nrange:bytes=100-199\r\n\r\n");
+        assertTrue(request.partial);
+        assertEquals(100, request.rangeOffset);
+        assertEquals(199, request.rangeEnd);
+    }
+
+    @Test
+    public void testFirstOfSeveralRanges() throws Exception {
+        GetRequest request = parse("GET /video HTTP/1.1\r\nRange: bytes=0-1,5-9\r\n\r\n");
+        assertTrue(request.partial);
+        assertEquals(0, request.rangeOffset);
+        assertEquals(1, request.rangeEnd);
+    }
+
+    @Test
+    public void testUnsupportedRangesAreIgnored() throws Exception {
+        String[] ranges = {"bytes=-500", "bytes=abc-", "bytes=99999999999999999999-", "items=0-10", "bytes="};
+        for (String range : ranges) {
+            assertFalse(range, parse("GET /video HTTP/1.1\r\nRange: " + range + "\r\n\r\n").partial);
+        }
+    }
+
+    @Test
+    public void testInvalidRangeEndIsOpenRange() throws Exception {
+        GetRequest request = parse("GET /video HTTP/1.1\r\nRange: bytes=1-x\r\n\r\n");
+        assertEquals(1, request.rangeOffset);
+        assertEquals(-1, request.rangeEnd);
+    }
+
+    @Test
+    public void testRangeEndBeforeOffsetIsOpenRange() throws Exception {
+        GetRequest request = parse("GET /video HTTP/1.1\r\nRange: bytes=200-100\r\n\r\n");
+        assertEquals(200, request.rangeOffset);
+        assertEquals(-1, request.rangeEnd);
+    }
+
+    @Test
+    public void testKeepAlive() throws Exception {
+        assertFalse(parse("GET /video HTTP/1.1\r\nConnection: close\r\n\r\n").keepAlive);
+        assertFalse(parse("GET /video HTTP/1.0\r\n\r\n").keepAlive);
+        assertTrue(parse("GET /video HTTP/1.0\r\nConnection: Keep-Alive\r\n\r\n").keepAlive);
+    }
+
+    @Test
+    public void testLfOnlyLineEndings() throws Exception {
+        GetRequest request = parse("GET /video HTTP/1.1\nRange: bytes=5-\n\n");
+        assertEquals("video", request.uri);
+        assertEquals(5, request.rangeOffset);
+    }
+
+    @Test
+    public void testHeaders() throws Exception {
+        Map<String, String> headers = parse("GET /video HTTP/1.1\r\nUser-Agent:  ExoPlayer \r\nX-Token: a:b\r\n\r\n").headers();
+        assertEquals(2, headers.size());
+        assertEquals("ExoPlayer", headers.get("User-Agent"));
+        assertEquals("a:b", headers.get("X-Token"));
+    }
+
+    @Test
+    public void testInvalidRequest() throws Exception {
+        try {
+            parse("POST /video HTTP/1.1\r\n\r\n");
+            fail("Only GET and HEAD requests are supported");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testPipelinedRequests() throws Exception {
+        String requests = "GET /first HTTP/1.1\r\n\r\nGET /second HTTP/1.1\r\nRange: bytes=10-\r\n\r\n";
+        HttpRequestParser parser = new HttpRequestParser();
+        InputStream in = new ByteArrayInputStream(requests.getBytes(HttpRequestParser.ASCII));
+        assertEquals("first", parser.read(in).uri);
+        GetRequest second = parser.read(in);
+        assertEquals("second", second.uri);
+        assertEquals(10, second.rangeOffset);
+        assertNull(parser.read(in));
+    }
+
+    @Test
+    public void testRequestReceivedByteByByte() throws Exception {
+        byte[] request = "GET /video HTTP/1.1\r\nRange: bytes=7-\r\n\r\n".getBytes(HttpRequestParser.ASCII);
+        GetRequest parsed = new HttpRequestParser().read(new ByteByByteInputStream(request));
+        assertEquals("video", parsed.uri);
+        assertEquals(7, parsed.rangeOffset);
+    }
+
+    @Test
+    public void testClosedConnection() throws Exception {
+        assertNull(new HttpRequestParser().read(new ByteArrayInputStream(new byte[0])));
+    }
+
+    @Test(expected = IOException.class)
+    public void testIncompleteRequest() throws Exception {
+        new HttpRequestParser().read(new ByteArrayInputStream("GET /video HTTP/1.1\r\n".getBytes(HttpRequestParser.ASCII)));
+    }
+
+    @Test(expected = IOException.class)
+    public void testTooLargeRequest() throws Exception {
+        byte[] header = new byte[HttpRequestParser.MAX_REQUEST_SIZE];
+        Arrays.fill(header, (byte) 'a');
+        String request = "GET /video HTTP/1.1\r\nX-Large: " + new String(header, HttpRequestParser.ASCII) + "\r\n\r\n";
+        new HttpRequestParser().read(new ByteArrayInputStream(request.getBytes(HttpRequestParser.ASCII)));
+    }
+
+    private static GetRequest parse(String request) throws IOException {
+        return new HttpRequestParser().read(new ByteArrayInputStream(request.getBytes(HttpRequestParser.ASCII)));
+    }
+
+    private static final class ByteByByteInputStream extends InputStream {
+
+        private final byte[] data;
+        private int position;
+
+        ByteByByteInputStream(byte[] data) {
+            this.data = data;
+        }
+
+        @Override
+        public int read() {
+            return position < data.length ? data[position++] & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            if (position == data.length) {
+                return -1;
+            }
+            buffer[offset] = data[position++];
+            return 1;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.iwdael.videocache;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+
+public class Mp4LayoutTest {
+
+    private static final int FTYP_SIZE = 24;
+    private static final int MDAT_SIZE = 1000;
+    private static final int MOOV_SIZE = 200;
+    private static final int LENGTH = FTYP_SIZE + MDAT_SIZE + MOOV_SIZE;
+
+    @Test
+    public void testMoovAfterMdat() throws Exception {
+        RangeCache cache = new RangeCache(file("ftyp", FTYP_SIZE, "mdat", MDAT_SIZE, "moov", MOOV_SIZE));
+        cache.cache(0, FTYP_SIZE + 16);
+        assertEquals(FTYP_SIZE + MDAT_SIZE, Mp4Layout.findTail(cache, LENGTH));
+    }
+
+    @Test
+    public void testCachedTail() throws Exception {
+        RangeCache cache = new RangeCache(file("ftyp", FTYP_SIZE, "mdat", MDAT_SIZE, "moov", MOOV_SIZE));
+        cache.cache(0, FTYP_SIZE + 16);
+        cache.cache(FTYP_SIZE + MDAT_SIZE, LENGTH);
+        assertEquals(Mp4Layout.NO_TAIL, Mp4Layout.findTail(cache, LENGTH));
+    }
+
+    @Test
+    public void testFastStart() throws Exception {
+        RangeCache cache = new RangeCache(file("ftyp", FTYP_SIZE, "moov", MOOV_SIZE, "mdat", MDAT_SIZE));
+        cache.cache(0, FTYP_SIZE + 16);
+        assertEquals(Mp4Layout.NO_TAIL, Mp4Layout.findTail(cache, LENGTH));
+    }
+
+    @Test
+    public void testNotMp4() throws Exception {
+        RangeCache cache = new RangeCache(file("RIFF", FTYP_SIZE, "mdat", MDAT_SIZE, "moov", MOOV_SIZE));
+        cache.cache(0, LENGTH);
+        assertEquals(Mp4Layout.NO_TAIL, Mp4Layout.findTail(cache, LENGTH));
+    }
+
+    @Test
+    public void testHeadNotCached() throws Exception {
+        RangeCache cache = new RangeCache(file("ftyp", FTYP_SIZE, "mdat", MDAT_SIZE, "moov", MOOV_SIZE));
+        assertEquals(Mp4Layout.UNKNOWN, Mp4Layout.findTail(cache, LENGTH));
+        cache.cache(0, FTYP_SIZE);
+        assertEquals(Mp4Layout.UNKNOWN, Mp4Layout.findTail(cache, LENGTH)); // mdat header isn't cached
+    }
+
+    @Test
+    public void testLargeSizeMdat() throws Exception {
+        byte[] data = file("ftyp", FTYP_SIZE, "mdat", MDAT_SIZE, "moov", MOOV_SIZE);
+        ByteBuffer.wrap(data, FTYP_SIZE, 16).putInt(1).put("mdat".getBytes("US-ASCII")).putLong(MDAT_SIZE);
+        RangeCache cache = new RangeCache(data);
+        cache.cache(0, FTYP_SIZE + 16);
+        assertEquals(FTYP_SIZE + MDAT_SIZE, Mp4Layout.findTail(cache, LENGTH));
+    }
+
+    @Test
+    public void testBrokenBoxSize() throws Exception {
+        byte[] data = file("ftyp", FTYP_SIZE, "mdat", MDAT_SIZE, "moov", MOOV_SIZE);
+        ByteBuffer.wrap(data, FTYP_SIZE, 4).putInt(4);
+        RangeCache cache = new RangeCache(data);
+        cache.cache(0, LENGTH);
+        assertEquals(Mp4Layout.NO_TAIL, Mp4Layout.findTail(cache, LENGTH));
+    }
+
+    /**
+     * Returns file of top-level boxes given as pairs of type and size.
+     */
+    private static byte[] file(Object... boxes) throws Exception {
+        int length = 0;
+        for (int i = 1; i < boxes.length; i += 2) {
+            length += (Integer) boxes[i];
+        }
+        ByteBuffer file = ByteBuffer.allocate(length);
+        for (int i = 0; i < boxes.length; i += 2) {
+            int size = (Integer) boxes[i + 1];
+            int start = file.position();
+            file.putInt(size).put(((String) boxes[i]).getBytes("US-ASCII"));
+            file.position(start + size);
+        }
+        return file.array();
+    }
+}
@@ -0,0 +1,161 @@
+package com.iwdael.videocache;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.security.KeyStore;
+import java.util.Random;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManagerFactory;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks TLS exchange against loopback server using self-signed certificate of {@code localhost}.
+ */
+public class NioHttpExchangeTest {
+
+    private static final char[] PASSWORD = "password".toCharArray();
+    private static final long TIMEOUT = 10000;
+
+    private SSLContext defaultContext;
+    private HostnameVerifier defaultVerifier;
+    private SSLContext serverContext;
+    private NioHttpEngine engine;
+
+    @Before
+    public void setUp() throws Exception {
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        try (InputStream in = getClass().getResourceAsStream("/localhost.p12")) {
+            keyStore.load(in, PASSWORD);
+        }
+        KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagers.init(keyStore, PASSWORD);
+        serverContext = SSLContext.getInstance("TLS");
+        serverContext.init(keyManagers.getKeyManagers(), null, null);
+
+        TrustManagerFactory trustManagers = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trustManagers.init(keyStore);
+        SSLContext clientContext = SSLContext.getInstance("TLS");
+        clientContext.init(null, trustManagers.getTrustManagers(), null);
+        defaultContext = SSLContext.getDefault();
+        SSLContext.setDefault(clientContext);
+        defaultVerifier = HttpsURLConnection.getDefaultHostnameVerifier();
+        HttpsURLConnection.setDefaultHostnameVerifier((host, session) -> "localhost".equals(host)); // JVM's default verifier rejects any host
+        engine = new NioHttpEngine(1);
+    }
+
+    @After
+    public void tearDown() {
+        engine.shutdown();
+        SSLContext.setDefault(defaultContext);
+        HttpsURLConnection.setDefaultHostnameVerifier(defaultVerifier);
+    }
+
+    @Test
+    public void testTlsResponse() throws Exception {
+        byte[] body = generate(300000);
+        assertArrayEquals(body, fetch(body, false));
+    }
+
+    @Test
+    public void testTls12Renegotiation() throws Exception {
+        byte[] body = generate(3000000);
+        assertArrayEquals(body, fetch(body, true));
+    }
+
+    private byte[] fetch(byte[] body, boolean renegotiate) throws Exception {
+        SSLServerSocket serverSocket = (SSLServerSocket) serverContext.getServerSocketFactory().createServerSocket(0);
+        serverSocket.setEnabledProtocols(new String[]{"TLSv1.2"}); // TLS 1.3 has no renegotiation
+        Thread server = new Thread(new ServerRunnable(serverSocket, body, renegotiate));
+        server.start();
+        byte[] request = "GET / HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n".getBytes(HttpRequestParser.ASCII);
+        NioHttpExchange exchange = new NioHttpExchange(new InetSocketAddress("localhost", serverSocket.getLocalPort()), "localhost", true, request);
+        try {
+            engine.start(exchange);
+            assertEquals(200, exchange.awaitHead(TIMEOUT));
+            assertEquals(body.length, exchange.contentLength());
+            ByteArrayOutputStream received = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = exchange.read(buffer, TIMEOUT)) != -1) {
+                received.write(buffer, 0, read);
+            }
+            return received.toByteArray();
+        } finally {
+            exchange.close();
+            serverSocket.close();
+            server.join(TIMEOUT);
+        }
+    }
+
+    private static byte[] generate(int length) {
+        byte[] data = new byte[length];
+        new Random(length).nextBytes(data);
+        return data;
+    }
+
+    private static final class ServerRunnable implements Runnable {
+
+        private final SSLServerSocket serverSocket;
+        private final byte[] body;
+        private final boolean renegotiate;
+
+        ServerRunnable(SSLServerSocket serverSocket, byte[] body, boolean renegotiate) {
+            this.serverSocket = serverSocket;
+            this.body = body;
+            this.renegotiate = renegotiate;
+        }
+
+        @Override
+        public void run() {
+            try (final SSLSocket socket = (SSLSocket) serverSocket.accept()) {
+                InputStream in = socket.getInputStream();
+                int last = 0;
+                for (int b; (b = in.read()) != -1 && !(last == '\n' && b == '\r'); ) { // request ends with empty line
+                    last = b;
+                }
+                OutputStream out = socket.getOutputStream();
+                out.write(("HTTP/1.1 200 OK\r\nContent-Length: " + body.length + "\r\n\r\n").getBytes(HttpRequestParser.ASCII));
+                int half = body.length / 2;
+                out.write(body, 0, half);
+                out.flush();
+                // handshake messages of client are received by reading socket, it is read until client closes connection
+                Thread reader = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            while (socket.getInputStream().read() != -1) {
+                                // nothing is sent by client after request
+                            }
+                        } catch (IOException e) {
+                            // socket is closed
+                        }
+                    }
+                });
+                reader.start();
+                if (renegotiate) {
+                    socket.startHandshake(); // handshake isn't awaited, rest of body is sent while it runs
+                }
+                out.write(body, half, body.length - half);
+                out.flush();
+                reader.join(TIMEOUT); // socket is kept open until client has read response, so handshake isn't cut off
+            } catch (IOException | InterruptedException e) {
+                // client fails then
+            }
+        }
+    }
+}
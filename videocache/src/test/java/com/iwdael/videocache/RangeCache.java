@@ -0,0 +1,118 @@
+package com.iwdael.videocache;
+
+import java.io.File;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Memory {@link Cache} of known content, where only ranges marked by {@link #cache(long, long)} are treated as cached.
+ */
+final class RangeCache implements Cache {
+
+    private final byte[] data;
+    private final long length;
+    private final List<CachePatch> cached = new ArrayList<>();
+
+    RangeCache(long length) {
+        this(new byte[0], length);
+    }
+
+    RangeCache(byte[] data) {
+        this(data, data.length);
+    }
+
+    private RangeCache(byte[] data, long length) {
+        this.data = data;
+        this.length = length;
+    }
+
+    /**
+     * Marks range [start, end) as cached.
+     */
+    synchronized void cache(long start, long end) {
+        int index = 0;
+        while (index < cached.size() && cached.get(index).start < start) {
+            index++;
+        }
+        cached.add(index, new CachePatch(key(), start, end));
+    }
+
+    @Override
+    public String key() {
+        return "range-cache";
+    }
+
+    @Override
+    public synchronized List<CachePatch> externalPatch(long start, long end) {
+        List<CachePatch> missing = new ArrayList<>();
+        end = Math.min(end, length);
+        long position = start;
+        for (CachePatch range : cached) {
+            if (position >= end) {
+                break;
+            }
+            if (range.start > position) {
+                missing.add(new CachePatch(key(), position, Math.min(range.start, end)));
+            }
+            position = Math.max(position, range.end);
+        }
+        if (position < end) {
+            missing.add(new CachePatch(key(), position, end));
+        }
+        return missing;
+    }
+
+    @Override
+    public int read(byte[] buffer, long pointer, int offset, int length) {
+        if (pointer >= data.length) {
+            return -1;
+        }
+        int count = (int) Math.min(length, data.length - pointer);
+        System.arraycopy(data, (int) pointer, buffer, offset, count);
+        return count;
+    }
+
+    @Override
+    public void write(byte[] data, long pointer, int offset, int length) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public long transferTo(long pointer, long count, WritableByteChannel target) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public void complete() {
+    }
+
+    @Override
+    public boolean isCompleted() {
+        return false;
+    }
+
+    @Override
+    public void clear() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void putPatch(long start, long end) {
+        cache(start, end);
+    }
+
+    @Override
+    public boolean readyPatch(long len) {
+        return externalPatch(0, len).isEmpty();
+    }
+
+    @Override
+    public File getFile() {
+        return null;
+    }
+}
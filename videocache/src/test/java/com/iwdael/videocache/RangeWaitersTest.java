@@ -0,0 +1,86 @@
+package com.iwdael.videocache;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RangeWaitersTest {
+
+    private static final long LONG_WAIT = 5000;
+    private static final long SHORT_WAIT = 100;
+
+    @Test
+    public void testSignalBeforeAwaitIsNotLost() throws Exception {
+        RangeWaiters waiters = new RangeWaiters();
+        RangeWaiters.Waiter waiter = waiters.register(100);
+        waiters.signal(0, 200);
+        assertTrue(awaitsShorterThan(waiter, LONG_WAIT));
+    }
+
+    @Test
+    public void testOnlyCoveredOffsetIsWoken() throws Exception {
+        RangeWaiters waiters = new RangeWaiters();
+        RangeWaiters.Waiter waiter = waiters.register(100);
+        waiters.signal(0, 100); // end is exclusive
+        waiters.signal(101, 200);
+        assertFalse(awaitsShorterThan(waiter, SHORT_WAIT));
+    }
+
+    @Test
+    public void testSignalWakesWaitingReader() throws Exception {
+        final RangeWaiters waiters = new RangeWaiters();
+        final RangeWaiters.Waiter waiter = waiters.register(50);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch woken = new CountDownLatch(1);
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    started.countDown();
+                    waiter.await(LONG_WAIT);
+                    woken.countDown();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        reader.start();
+        started.await();
+        waiters.signal(50, 51);
+        assertTrue(woken.await(LONG_WAIT / 2, TimeUnit.MILLISECONDS));
+        reader.join();
+    }
+
+    @Test
+    public void testSignalAll() throws Exception {
+        RangeWaiters waiters = new RangeWaiters();
+        RangeWaiters.Waiter first = waiters.register(0);
+        RangeWaiters.Waiter second = waiters.register(1000);
+        waiters.signalAll();
+        assertTrue(awaitsShorterThan(first, LONG_WAIT));
+        assertTrue(awaitsShorterThan(second, LONG_WAIT));
+    }
+
+    @Test
+    public void testUnregisteredReaderIsNotSignalled() throws Exception {
+        RangeWaiters waiters = new RangeWaiters();
+        RangeWaiters.Waiter waiter = waiters.register(10);
+        waiters.unregister(waiter);
+        assertTrue(waiters.isEmpty());
+        waiters.signal(0, 100);
+        assertFalse(awaitsShorterThan(waiter, SHORT_WAIT));
+    }
+
+    /**
+     * Returns {@code true} if waiter was signalled: it didn't wait until timeout.
+     */
+    private static boolean awaitsShorterThan(RangeWaiters.Waiter waiter, long timeout) throws InterruptedException {
+        long start = System.nanoTime();
+        waiter.await(timeout);
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < timeout;
+    }
+}
@@ -0,0 +1,73 @@
+package com.iwdael.videocache;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ReadAheadWindowTest {
+
+    private static final long WINDOW = 1000;
+
+    @Test
+    public void testUnlimitedWindow() {
+        ReadAheadWindow window = new ReadAheadWindow(0, 0);
+        window.register(0);
+        assertFalse(window.isAhead(Long.MAX_VALUE / 2));
+        assertTrue(window.canResume(Long.MAX_VALUE / 2));
+    }
+
+    @Test
+    public void testBytesWindowFollowsFurthestClient() {
+        ReadAheadWindow window = new ReadAheadWindow(WINDOW, 0);
+        ReadAheadWindow.Client slow = window.register(0);
+        ReadAheadWindow.Client fast = window.register(0);
+        assertFalse(window.isAhead(WINDOW - 1));
+        assertTrue(window.isAhead(WINDOW));
+
+        window.onClientRead(fast, 500);
+        window.onClientRead(slow, 100);
+        assertFalse(window.isAhead(WINDOW + 499));
+        assertTrue(window.isAhead(WINDOW + 500));
+    }
+
+    @Test
+    public void testReaderResumesWhenQuarterOfWindowIsFree() {
+        ReadAheadWindow window = new ReadAheadWindow(WINDOW, 0);
+        ReadAheadWindow.Client client = window.register(0);
+        long paused = WINDOW;
+        assertFalse(window.canResume(paused));
+        window.onClientRead(client, WINDOW / 4);
+        assertFalse(window.canResume(paused));
+        window.onClientRead(client, WINDOW / 4 + 1);
+        assertTrue(window.canResume(paused));
+    }
+
+    @Test
+    public void testUnregisteredClientDoesNotHoldWindow() {
+        ReadAheadWindow window = new ReadAheadWindow(WINDOW, 0);
+        ReadAheadWindow.Client client = window.register(5000);
+        assertTrue(window.isNear(5000, 1));
+        window.unregister(client);
+        assertFalse(window.isNear(5000, 1));
+    }
+
+    @Test
+    public void testSecondsWindowUsesBytesUntilBitrateIsKnown() {
+        ReadAheadWindow window = new ReadAheadWindow(WINDOW, 10);
+        ReadAheadWindow.Client client = window.register(0);
+        window.onClientRead(client, 100);
+        assertTrue(window.isAhead(100 + WINDOW));
+    }
+
+    @Test
+    public void testSecondsWindowGrowsWithBitrate() throws Exception {
+        ReadAheadWindow window = new ReadAheadWindow(WINDOW, 10);
+        ReadAheadWindow.Client client = window.register(0);
+        window.onClientRead(client, 0);
+        Thread.sleep(1100);
+        window.onClientRead(client, 100000); // about 90 KB/s, so window is about 900 KB
+        assertFalse(window.isAhead(100000 + 100 * WINDOW));
+        assertTrue(window.isAhead(100000 + 10 * 100000));
+    }
+}
@@ -0,0 +1,57 @@
+package com.iwdael.videocache;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class RedirectCacheTest {
+
+    private static final String URL = "http://example.com/video.mp4";
+    private static final String LOCATION = "http://cdn.example.com/video.mp4?token=1";
+
+    @Test
+    public void testLocation() {
+        RedirectCache cache = new RedirectCache(8, 60000);
+        assertNull(cache.get(URL));
+        cache.put(URL, LOCATION);
+        assertEquals(LOCATION, cache.get(URL));
+    }
+
+    @Test
+    public void testInvalidate() {
+        RedirectCache cache = new RedirectCache(8, 60000);
+        cache.put(URL, LOCATION);
+        cache.invalidate(URL);
+        assertNull(cache.get(URL));
+    }
+
+    @Test
+    public void testNotRedirectedUrlIsForgotten() {
+        RedirectCache cache = new RedirectCache(8, 60000);
+        cache.put(URL, LOCATION);
+        cache.put(URL, URL);
+        assertNull(cache.get(URL));
+    }
+
+    @Test
+    public void testExpiration() throws Exception {
+        RedirectCache cache = new RedirectCache(8, 50);
+        cache.put(URL, LOCATION);
+        Thread.sleep(100);
+        assertNull(cache.get(URL));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() {
+        RedirectCache cache = new RedirectCache(2, 60000);
+        cache.put("http://example.com/1", LOCATION + 1);
+        cache.put("http://example.com/2", LOCATION + 2);
+        cache.get("http://example.com/1");
+        cache.put("http://example.com/3", LOCATION + 3);
+
+        assertEquals(LOCATION + 1, cache.get("http://example.com/1"));
+        assertNull(cache.get("http://example.com/2"));
+        assertEquals(LOCATION + 3, cache.get("http://example.com/3"));
+    }
+}
@@ -0,0 +1,81 @@
+package com.iwdael.videocache;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SourceReaderPoolTest {
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testYieldToOtherOwner() throws Exception {
+        SourceReaderPool pool = new SourceReaderPool(executor, 1);
+        Object first = new Object();
+        pool.submit(first, new BlockingReader());
+        pool.submit(new Object(), new BlockingReader());
+
+        assertFalse(pool.shouldYield(first, System.currentTimeMillis()));
+        assertTrue(pool.shouldYield(first, System.currentTimeMillis() - SourceReaderPool.TIME_SLICE));
+    }
+
+    @Test
+    public void testCancelledReaderDoesNotCauseYield() throws Exception {
+        SourceReaderPool pool = new SourceReaderPool(executor, 1);
+        Object first = new Object();
+        pool.submit(first, new BlockingReader());
+        Future<?> queued = pool.submit(new Object(), new BlockingReader());
+        queued.cancel(true);
+
+        assertFalse(pool.shouldYield(first, System.currentTimeMillis() - SourceReaderPool.TIME_SLICE));
+    }
+
+    @Test
+    public void testQueuedReaderRunsAfterCancelledOne() throws Exception {
+        SourceReaderPool pool = new SourceReaderPool(executor, 1);
+        Future<?> running = pool.submit(new Object(), new BlockingReader());
+        Future<?> cancelled = pool.submit(new Object(), new BlockingReader());
+        final AtomicBoolean ran = new AtomicBoolean();
+        final CountDownLatch finished = new CountDownLatch(1);
+        pool.submit(new Object(), new Runnable() {
+            @Override
+            public void run() {
+                ran.set(true);
+                finished.countDown();
+            }
+        });
+        cancelled.cancel(true);
+        running.cancel(true);
+
+        assertTrue(finished.await(5, TimeUnit.SECONDS));
+        assertTrue(ran.get());
+    }
+
+    private final class BlockingReader implements Runnable {
+
+        @Override
+        public void run() {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}